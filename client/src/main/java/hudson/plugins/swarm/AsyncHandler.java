@@ -0,0 +1,248 @@
+package hudson.plugins.swarm;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.ErrorManager;
+import java.util.logging.Filter;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+/**
+ * A log handler that hands records to another handler on a background thread, so that slow disks
+ * or consoles never stall the threads that log. Records are buffered in a bounded queue. When the
+ * queue is full, records are either dropped, which is reported once the queued records have been
+ * written, or the logging thread waits. Repeated warnings with the same message are only logged once per interval.
+ *
+ * <p>Configured through the {@code logging.properties} file like the handlers of {@code
+ * java.util.logging}:
+ *
+ * <ul>
+ *   <li>{@code hudson.plugins.swarm.AsyncHandler.target}: the handler to hand records to (default:
+ *       {@link ConsoleHandler})
+ *   <li>{@code hudson.plugins.swarm.AsyncHandler.capacity}: the number of records to buffer
+ *       (default: 8192)
+ *   <li>{@code hudson.plugins.swarm.AsyncHandler.overflow}: {@code drop} or {@code block} (default:
+ *       {@code drop})
+ *   <li>{@code hudson.plugins.swarm.AsyncHandler.repeatInterval}: seconds during which repeated
+ *       warnings are suppressed, or 0 to log all of them (default: 60)
+ *   <li>{@code hudson.plugins.swarm.AsyncHandler.level}, {@code .filter}, {@code .formatter}: as for
+ *       other handlers; the formatter is set on the target handler
+ * </ul>
+ */
+public class AsyncHandler extends Handler {
+
+    private static final int DEFAULT_CAPACITY = 8192;
+
+    private static final long DEFAULT_REPEAT_INTERVAL_SECONDS = 60;
+
+    /** Bounds the memory used to recognize repeated warnings. */
+    private static final int MAX_REPEATS = 1024;
+
+    private final Handler target;
+
+    private final BlockingQueue<LogRecord> queue;
+
+    private final boolean block;
+
+    private final long repeatIntervalNanos;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Map<String, Repeat> repeats = new LinkedHashMap<>();
+
+    private final Thread writer;
+
+    private volatile boolean closed;
+
+    /** Creates a handler configured through the {@code logging.properties} file. */
+    public AsyncHandler() {
+        this(
+                createTarget(getProperty("target", ConsoleHandler.class.getName())),
+                Integer.parseInt(getProperty("capacity", Integer.toString(DEFAULT_CAPACITY))),
+                "block".equalsIgnoreCase(getProperty("overflow", "drop")),
+                TimeUnit.SECONDS.toNanos(Long.parseLong(
+                        getProperty("repeatInterval", Long.toString(DEFAULT_REPEAT_INTERVAL_SECONDS)))));
+        setLevel(Level.parse(getProperty("level", Level.ALL.getName())));
+        String filter = getProperty("filter", null);
+        if (filter != null) {
+            setFilter((Filter) newInstance(filter));
+        }
+        String formatter = getProperty("formatter", null);
+        if (formatter != null) {
+            target.setFormatter((Formatter) newInstance(formatter));
+        }
+    }
+
+    AsyncHandler(Handler target, int capacity, boolean block, long repeatIntervalNanos) {
+        this.target = target;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.block = block;
+        this.repeatIntervalNanos = repeatIntervalNanos;
+        this.writer = new Thread(this::write, "swarm-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        if (isRepeated(record)) {
+            return;
+        }
+        // The caller is only known on the logging thread.
+        record.getSourceClassName();
+        enqueue(record);
+    }
+
+    private void enqueue(LogRecord record) {
+        if (!block) {
+            if (!queue.offer(record)) {
+                dropped.incrementAndGet();
+            }
+            return;
+        }
+        try {
+            queue.put(record);
+        } catch (InterruptedException e) {
+            dropped.incrementAndGet();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Whether the record repeats a warning logged within the repeat interval. Once the interval
+     * has passed, the number of suppressed repetitions is logged before the record.
+     */
+    private boolean isRepeated(LogRecord record) {
+        if (repeatIntervalNanos <= 0 || record.getLevel().intValue() < Level.WARNING.intValue()) {
+            return false;
+        }
+        String key = record.getLevel() + " " + record.getLoggerName() + " " + record.getMessage();
+        long now = System.nanoTime();
+        long suppressed;
+        synchronized (repeats) {
+            Repeat repeat = repeats.get(key);
+            if (repeat != null && now - repeat.since < repeatIntervalNanos) {
+                repeat.suppressed++;
+                return true;
+            }
+            suppressed = repeat != null ? repeat.suppressed : 0;
+            if (repeats.size() >= MAX_REPEATS) {
+                repeats.clear();
+            }
+            repeats.put(key, new Repeat(now));
+        }
+        if (suppressed > 0) {
+            LogRecord summary = new LogRecord(
+                    record.getLevel(), "Suppressed " + suppressed + " repetitions of: " + record.getMessage());
+            summary.setLoggerName(record.getLoggerName());
+            summary.setParameters(record.getParameters());
+            summary.setSourceClassName(record.getSourceClassName());
+            summary.setSourceMethodName(record.getSourceMethodName());
+            enqueue(summary);
+        }
+        return false;
+    }
+
+    private void write() {
+        while (!closed || !queue.isEmpty()) {
+            try {
+                LogRecord record = queue.poll(1, TimeUnit.SECONDS);
+                if (record != null) {
+                    target.publish(record);
+                } else {
+                    target.flush();
+                }
+                // Reported after the records that were kept, once they have all been written.
+                if (queue.isEmpty()) {
+                    reportDropped();
+                }
+            } catch (InterruptedException e) {
+                if (!closed) {
+                    reportError("Log writer interrupted", e, ErrorManager.GENERIC_FAILURE);
+                    return;
+                }
+            } catch (RuntimeException e) {
+                reportError("Failed to write log record", e, ErrorManager.WRITE_FAILURE);
+            }
+        }
+    }
+
+    private void reportDropped() {
+        long count = dropped.getAndSet(0);
+        if (count > 0) {
+            LogRecord record =
+                    new LogRecord(Level.WARNING, "Dropped " + count + " log records because the log queue was full");
+            record.setLoggerName(AsyncHandler.class.getName());
+            target.publish(record);
+        }
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public void flush() {
+        target.flush();
+    }
+
+    /** Writes the buffered records and closes the target handler. */
+    @Override
+    public void close() {
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        reportDropped();
+        target.close();
+    }
+
+    private static String getProperty(String name, String defaultValue) {
+        String value = LogManager.getLogManager().getProperty(AsyncHandler.class.getName() + "." + name);
+        return value != null ? value.trim() : defaultValue;
+    }
+
+    private static Handler createTarget(String className) {
+        return (Handler) newInstance(className);
+    }
+
+    private static Object newInstance(String className) {
+        try {
+            return ClassLoader.getSystemClassLoader()
+                    .loadClass(className)
+                    .getConstructor()
+                    .newInstance();
+        } catch (ClassNotFoundException
+                | NoSuchMethodException
+                | InstantiationException
+                | IllegalAccessException
+                | InvocationTargetException e) {
+            throw new IllegalArgumentException("Failed to create " + className, e);
+        }
+    }
+
+    private static class Repeat {
+
+        final long since;
+        long suppressed;
+
+        Repeat(long since) {
+            this.since = since;
+        }
+    }
+}
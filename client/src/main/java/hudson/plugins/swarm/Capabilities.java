@@ -0,0 +1,104 @@
+package hudson.plugins.swarm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The parts of the client protocol supported by a controller. Fetched once per controller through
+ * {@code plugin/swarm/capabilities}. Controllers running an older plugin do not have that endpoint
+ * and only support the basic protocol.
+ */
+final class Capabilities {
+
+    private static final Logger logger = Logger.getLogger(Capabilities.class.getName());
+
+    /** Labels of any length in a single request, and {@code setSlaveLabels}. */
+    static final String BULK_LABELS = "bulkLabels";
+
+    /** Changing the number of executors of a connected agent through {@code setExecutors}. */
+    static final String EXECUTORS = "executors";
+
+    /** Disconnecting idle agents, and asking whether to register again through {@code wake}. */
+    static final String IDLE = "idle";
+
+    /** Listing the JAR files usually sent to agents through {@code jarManifest}, and {@code jar}. */
+    static final String JAR_MANIFEST = "jarManifest";
+
+    /** Reporting the load of the host through {@code reportLoad}. */
+    static final String LOAD = "load";
+
+    /** The basic protocol, supported by every version of the plugin. */
+    static final Capabilities BASIC = new Capabilities(1, Collections.emptySet());
+
+    private final int version;
+
+    private final Set<String> features;
+
+    Capabilities(int version, Set<String> features) {
+        this.version = version;
+        this.features = features;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    boolean supports(String feature) {
+        return features.contains(feature);
+    }
+
+    @Override
+    public String toString() {
+        return "version " + version + " " + features;
+    }
+
+    /**
+     * Asks the controller for its capabilities. Completes with the basic protocol if the controller
+     * does not know this endpoint, and exceptionally if it could not be asked, so that the caller
+     * can try again later.
+     */
+    static CompletableFuture<Capabilities> fetchAsync(HttpClient client, Options options, URL url) {
+        HttpRequest.Builder builder =
+                HttpRequest.newBuilder(URI.create(url + "plugin/swarm/capabilities")).GET();
+        SwarmClient.addAuthorizationHeader(builder, options);
+        return client.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofInputStream())
+                .thenApply(response -> {
+                    try (InputStream stream = response.body()) {
+                        if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+                            logger.fine(String.format(
+                                    "Controller %s does not report capabilities. Response code: %s",
+                                    url, response.statusCode()));
+                            return BASIC;
+                        }
+                        Properties props = new Properties();
+                        props.load(stream);
+                        return parse(props);
+                    } catch (IOException | IllegalArgumentException e) {
+                        logger.log(Level.FINE, "Failed to read capabilities of " + url, e);
+                        return BASIC;
+                    }
+                });
+    }
+
+    static Capabilities parse(Properties props) {
+        int version = Integer.parseInt(props.getProperty("version", "1"));
+        Set<String> features = new HashSet<>(
+                Arrays.asList(props.getProperty("features", "").trim().split("\\s+")));
+        features.remove("");
+        return new Capabilities(version, Collections.unmodifiableSet(features));
+    }
+}
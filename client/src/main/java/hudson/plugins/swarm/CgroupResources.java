@@ -0,0 +1,199 @@
+package hudson.plugins.swarm;
+
+import com.sun.management.OperatingSystemMXBean;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The CPU and memory available to the client, taken from the cgroup v2 limits of its container
+ * where there are any, and from the host otherwise. The limits are read anew on every call, so that
+ * resizing the container is picked up.
+ */
+class CgroupResources {
+
+    private static final Logger logger = Logger.getLogger(CgroupResources.class.getName());
+
+    private static final long MIB = 1024 * 1024;
+
+    private final Path cgroupRoot;
+
+    private final Path procSelfCgroup;
+
+    private final Path procMeminfo;
+
+    CgroupResources() {
+        this(Paths.get("/sys/fs/cgroup"), Paths.get("/proc/self/cgroup"));
+    }
+
+    CgroupResources(Path cgroupRoot, Path procSelfCgroup) {
+        this(cgroupRoot, procSelfCgroup, Paths.get("/proc/meminfo"));
+    }
+
+    CgroupResources(Path cgroupRoot, Path procSelfCgroup, Path procMeminfo) {
+        this.cgroupRoot = cgroupRoot;
+        this.procSelfCgroup = procSelfCgroup;
+        this.procMeminfo = procMeminfo;
+    }
+
+    /** Returns the number of CPUs available, which may be fractional under a CPU quota. */
+    double getCpus() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        String cpuMax = read("cpu.max");
+        if (cpuMax == null) {
+            return processors;
+        }
+        // "$MAX $PERIOD", where $MAX is "max" without a quota
+        String[] fields = cpuMax.split("\\s+");
+        if (fields.length != 2 || fields[0].equals("max")) {
+            return processors;
+        }
+        try {
+            double cpus = Double.parseDouble(fields[0]) / Double.parseDouble(fields[1]);
+            return Math.min(cpus, processors);
+        } catch (NumberFormatException e) {
+            logger.log(Level.FINE, "Unexpected cpu.max: " + cpuMax, e);
+            return processors;
+        }
+    }
+
+    /** Returns the memory available in bytes. */
+    long getMemory() {
+        long physical = getPhysicalMemory();
+        String memoryMax = read("memory.max");
+        if (memoryMax == null || memoryMax.equals("max")) {
+            return physical;
+        }
+        try {
+            return Math.min(Long.parseLong(memoryMax), physical);
+        } catch (NumberFormatException e) {
+            logger.log(Level.FINE, "Unexpected memory.max: " + memoryMax, e);
+            return physical;
+        }
+    }
+
+    /**
+     * Returns the share of the memory in use, between 0 and 1, or -1 if it cannot be read. The page
+     * cache is not counted as used, since it is reclaimed when needed: within a container with a
+     * memory limit, inactive file pages are subtracted from its usage, and on the host, the memory
+     * the kernel estimates to be available is taken as free.
+     */
+    double getMemoryUtilization() {
+        String memoryMax = read("memory.max");
+        String memoryCurrent = read("memory.current");
+        if (memoryMax != null && !memoryMax.equals("max") && memoryCurrent != null) {
+            try {
+                long limit = Long.parseLong(memoryMax);
+                long used = Long.parseLong(memoryCurrent) - getInactiveFile();
+                if (limit > 0) {
+                    return Math.min(Math.max((double) used / limit, 0), 1);
+                }
+            } catch (NumberFormatException e) {
+                logger.log(Level.FINE, "Unexpected memory.max or memory.current", e);
+            }
+        }
+        long total = -1;
+        long available = -1;
+        try {
+            for (String line : Files.readAllLines(procMeminfo, StandardCharsets.US_ASCII)) {
+                // "MemAvailable:   12345678 kB"
+                String[] fields = line.split("\\s+");
+                if (fields.length >= 2 && fields[0].equals("MemTotal:")) {
+                    total = Long.parseLong(fields[1]);
+                } else if (fields.length >= 2 && fields[0].equals("MemAvailable:")) {
+                    available = Long.parseLong(fields[1]);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            logger.log(Level.FINEST, "No available memory in " + procMeminfo, e);
+        }
+        if (total > 0 && available >= 0) {
+            return Math.min(Math.max(1 - (double) available / total, 0), 1);
+        }
+        return -1;
+    }
+
+    /** Returns the inactive file pages of the cgroup in bytes, from its memory.stat, or 0. */
+    private long getInactiveFile() {
+        String stat = read("memory.stat");
+        if (stat != null) {
+            for (String line : stat.split("\\R")) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length == 2 && fields[0].equals("inactive_file")) {
+                    return Long.parseLong(fields[1]);
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of executors that fit into the available resources, at least one.
+     *
+     * @param cpusPerExecutor the CPUs needed by an executor
+     * @param memoryPerExecutor the memory in MiB needed by an executor, or 0 to ignore memory
+     */
+    int getExecutors(double cpusPerExecutor, int memoryPerExecutor) {
+        return computeExecutors(getCpus(), getMemory(), cpusPerExecutor, memoryPerExecutor);
+    }
+
+    static int computeExecutors(double cpus, long memory, double cpusPerExecutor, int memoryPerExecutor) {
+        long executors = Long.MAX_VALUE;
+        if (cpusPerExecutor > 0) {
+            executors = (long) Math.floor(cpus / cpusPerExecutor);
+        }
+        if (memoryPerExecutor > 0) {
+            executors = Math.min(executors, memory / (memoryPerExecutor * MIB));
+        }
+        if (executors == Long.MAX_VALUE) {
+            executors = (long) Math.floor(cpus);
+        }
+        return (int) Math.max(1, Math.min(executors, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Reads a file of the cgroup of this process, falling back to the root of the cgroup file
+     * system, which is where containers usually see their own cgroup.
+     */
+    private String read(String name) {
+        for (Path dir : List.of(getOwnCgroup(), cgroupRoot)) {
+            Path file = dir.resolve(name);
+            if (Files.isReadable(file)) {
+                try {
+                    return Files.readString(file, StandardCharsets.US_ASCII).trim();
+                } catch (IOException e) {
+                    logger.log(Level.FINE, "Failed to read " + file, e);
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Returns the directory of the cgroup of this process, from its "0::/path" entry. */
+    private Path getOwnCgroup() {
+        try {
+            for (String line : Files.readAllLines(procSelfCgroup, StandardCharsets.US_ASCII)) {
+                if (line.startsWith("0::/")) {
+                    return cgroupRoot.resolve(line.substring("0::/".length()));
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.FINEST, "No cgroup v2 entry in " + procSelfCgroup, e);
+        }
+        return cgroupRoot;
+    }
+
+    private static long getPhysicalMemory() {
+        java.lang.management.OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof OperatingSystemMXBean) {
+            return ((OperatingSystemMXBean) bean).getTotalMemorySize();
+        }
+        return Runtime.getRuntime().maxMemory();
+    }
+}
@@ -12,6 +12,7 @@ import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.kohsuke.args4j.CmdLineException;
@@ -64,7 +65,11 @@ public class Client {
         }
 
         // Pass the command line arguments along so that the LabelFileWatcher thread can have them.
-        run(new SwarmClient(options), options, args);
+        SwarmClient swarmClient = new SwarmClient(options);
+        Options finalOptions = options;
+        try (Supervisor supervisor = swarmClient.getSupervisor()) {
+            supervisor.run("Reconnect", () -> run(swarmClient, finalOptions, args));
+        }
     }
 
     private static boolean hasConflictingOptions(CmdLineParser parser) {
@@ -148,6 +153,14 @@ public class Client {
             }
         }
 
+        // Fail early on unknown providers.
+        ResourceLabelProviders.get(options.resourceLabels);
+
+        if (options.autoExecutors) {
+            options.executors = new CgroupResources().getExecutors(options.executorCpus, options.executorMemory);
+            logger.info("Sized agent to " + options.executors + " executors");
+        }
+
         /*
          * Only look up the hostname if we have not already specified name of the agent. In certain
          * cases this lookup might fail (e.g., querying an external DNS server which might not be
@@ -172,15 +185,18 @@ public class Client {
     /**
      * Run the Swarm client.
      *
-     * <p>This method never returns.
+     * <p>This method only returns once the agent has been drained on shutdown.
      */
     static void run(SwarmClient swarmClient, Options options, String... args) throws InterruptedException {
         logger.info("Connecting to Jenkins controller");
-        URL url = swarmClient.getUrl();
 
         // wait until we get the ACK back
         int retry = 0;
         while (true) {
+            swarmClient.startRegistrationTrace();
+            URL url = swarmClient.hasFailoverUrls() ? swarmClient.selectController() : swarmClient.getUrl();
+            boolean restored = swarmClient.restoreRegistration(url);
+            long connected = System.nanoTime();
             try {
                 logger.info("Attempting to connect to " + url);
 
@@ -189,7 +205,14 @@ public class Client {
                  * has been set to the name returned by the server, which may or may not be the name
                  * we originally requested.
                  */
-                swarmClient.createSwarmAgent(url);
+                if (!restored) {
+                    swarmClient.createSwarmAgent(url);
+                    swarmClient.saveRegistration(url);
+                }
+
+                if (options.drainOnShutdown) {
+                    swarmClient.addDrainShutdownHook(url);
+                }
 
                 /*
                  * Set up the label file watcher thread. If the label file changes, this thread
@@ -199,10 +222,25 @@ public class Client {
                  */
                 if (options.labelsFile != null) {
                     logger.info("Setting up LabelFileWatcher");
-                    LabelFileWatcher l = new LabelFileWatcher(url, options, swarmClient.getName(), args);
-                    Thread labelFileWatcherThread = new Thread(l, "LabelFileWatcher");
-                    labelFileWatcherThread.setDaemon(true);
-                    labelFileWatcherThread.start();
+                    LabelFileWatcher l = new LabelFileWatcher(url, options, swarmClient, args);
+                    swarmClient.getSupervisor().start("LabelFileWatcher", l);
+                }
+
+                if (options.autoExecutors) {
+                    swarmClient.startExecutorAutoSizer(url);
+                }
+
+                if (!options.resourceLabels.isEmpty()) {
+                    swarmClient.startResourceLabelWatcher(url);
+                }
+
+                if (options.reportLoad) {
+                    swarmClient.startLoadReporter(url);
+                }
+
+                // The shared JAR cache is filled by prefetching, so that each JAR file is downloaded once.
+                if (options.prefetchJars || options.sharedJarCache != null) {
+                    swarmClient.prefetchJars(url);
                 }
 
                 /*
@@ -213,19 +251,62 @@ public class Client {
                     System.setProperty(NON_FATAL_JNLP_AGENT_ENDPOINT_RESOLUTION_EXCEPTIONS, "true");
                 }
 
+                // The Remoting handshake is traced by the controller, which sees the agent come online.
+                swarmClient.endRegistrationTrace(null);
+
                 /*
                  * Note that any instances of InterruptedException or RuntimeException thrown
                  * internally by the next line get wrapped in RetryException.
                  */
+                connected = System.nanoTime();
                 swarmClient.connect(url);
+                if (swarmClient.isDraining()) {
+                    logger.info("Agent has been drained, exiting...");
+                    return;
+                }
+                if (swarmClient.isIdle(url)) {
+                    if (!options.sleepWhenIdle) {
+                        logger.info("Agent has been disconnected for being idle, exiting...");
+                        swarmClient.exitWithStatus(0);
+                    }
+                    swarmClient.awaitWake(url);
+                    // Registering again makes the controller forget that the agent was idle.
+                    swarmClient.forgetRegistration();
+                    retry = 0;
+                    continue;
+                }
                 if (options.noRetryAfterConnected) {
                     logger.warning("Connection closed, exiting...");
                     swarmClient.exitWithStatus(0);
                 }
+                if (swarmClient.hasFailoverUrls()
+                        && System.nanoTime() - connected >= TimeUnit.SECONDS.toNanos(options.retryInterval)) {
+                    // Another controller may be available right away, so do not wait. Connections
+                    // that close right away still back off, so that the client does not spin.
+                    logger.info("Connection to " + url + " closed, failing over");
+                    retry = 0;
+                    continue;
+                }
             } catch (IOException | InterruptedException | RetryException e) {
+                swarmClient.endRegistrationTrace(e);
                 logger.log(Level.SEVERE, "An error occurred", e);
             }
 
+            if (swarmClient.isDraining()) {
+                // The JVM is shutting down, so do not register again.
+                logger.info("Agent has been drained, exiting...");
+                return;
+            }
+
+            if (restored && System.nanoTime() - connected < TimeUnit.SECONDS.toNanos(options.retryInterval)) {
+                // The connection failed or closed before it could have come online, so the
+                // controller has probably rejected the stored secret. Register again right away.
+                // Connections that ended later take the normal retry path with the stored secret.
+                logger.info("Registering again with " + url);
+                swarmClient.forgetRegistration();
+                continue;
+            }
+
             int waitTime =
                     options.retryBackOffStrategy.waitForRetry(retry++, options.retryInterval, options.maxRetryInterval);
             if (options.retry >= 0) {
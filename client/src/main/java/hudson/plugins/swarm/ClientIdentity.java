@@ -0,0 +1,186 @@
+package hudson.plugins.swarm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * The identity of a Swarm client, which makes the agent name unique. Computing it enumerates all
+ * network interfaces, which is slow on hosts with many virtual interfaces. The identity is
+ * therefore stored in the working directory and reused as long as the machine ID, the host, and
+ * the remote root directory are unchanged. Cloned VMs and containers often share the machine ID and
+ * even the working directory, so the host is identified by its name and the hardware addresses
+ * listed in {@code /sys/class/net}, which are cheap to read. The name is read from the kernel
+ * rather than looked up, since a DNS lookup can be slow or hang. Without a machine ID, the identity
+ * is computed on every start.
+ */
+final class ClientIdentity {
+
+    private static final Logger logger = Logger.getLogger(ClientIdentity.class.getName());
+
+    static final String FILE_NAME = "swarm-client-identity.properties";
+
+    private static final List<Path> MACHINE_ID_FILES =
+            List.of(Paths.get("/etc/machine-id"), Paths.get("/var/lib/dbus/machine-id"));
+
+    private static final List<Path> HOSTNAME_FILES =
+            List.of(Paths.get("/proc/sys/kernel/hostname"), Paths.get("/etc/hostname"));
+
+    private static final Path NET_DIR = Paths.get("/sys/class/net");
+
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{8}");
+
+    private ClientIdentity() {}
+
+    static String get(Options options) {
+        return get(options, getHost());
+    }
+
+    static String get(Options options, String host) {
+        String machineId = readMachineId(options.machineIdFile);
+        Path file = getFile(options);
+        String fsroot = canonicalPath(options.fsroot);
+
+        if (machineId != null && file != null && Files.isRegularFile(file)) {
+            Properties props = new Properties();
+            try (InputStream is = Files.newInputStream(file)) {
+                props.load(is);
+                String hash = props.getProperty("hash");
+                if (machineId.equals(props.getProperty("machineId"))
+                        && host.equals(props.getProperty("host"))
+                        && fsroot.equals(props.getProperty("fsroot"))
+                        && hash != null
+                        && HASH.matcher(hash).matches()) {
+                    logger.fine("Using cached client identity from " + file);
+                    return hash;
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                logger.log(Level.FINE, "Failed to read cached client identity from " + file, e);
+            }
+        }
+
+        String hash = SwarmClient.hash(options.fsroot);
+        if (machineId != null && file != null) {
+            Properties props = new Properties();
+            props.setProperty("hash", hash);
+            props.setProperty("machineId", machineId);
+            props.setProperty("host", host);
+            props.setProperty("fsroot", fsroot);
+            store(props, file);
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the file in the working directory that holds the identity, or {@code null} if there
+     * is no working directory. The working directory is never created here.
+     */
+    private static Path getFile(Options options) {
+        if (options.disableWorkDir) {
+            return null;
+        }
+        File workDir = options.workDir != null ? options.workDir : options.fsroot;
+        return workDir.isDirectory() ? workDir.toPath().resolve(FILE_NAME) : null;
+    }
+
+    private static String readMachineId(File machineIdFile) {
+        List<Path> candidates = machineIdFile != null ? List.of(machineIdFile.toPath()) : MACHINE_ID_FILES;
+        for (Path candidate : candidates) {
+            try {
+                String machineId = Files.readString(candidate, StandardCharsets.UTF_8).trim();
+                if (!machineId.isEmpty()) {
+                    return machineId;
+                }
+            } catch (IOException e) {
+                logger.log(Level.FINEST, "No machine ID in " + candidate, e);
+            }
+        }
+        return null;
+    }
+
+    /** Identifies this host by its name and the hardware addresses of its network interfaces. */
+    static String getHost() {
+        List<String> values = new ArrayList<>();
+        for (Path candidate : HOSTNAME_FILES) {
+            try {
+                String hostname = Files.readString(candidate, StandardCharsets.US_ASCII).trim();
+                if (!hostname.isEmpty()) {
+                    values.add(hostname);
+                    break;
+                }
+            } catch (IOException e) {
+                logger.log(Level.FINEST, "No hostname in " + candidate, e);
+            }
+        }
+        if (Files.isDirectory(NET_DIR)) {
+            List<String> addresses = new ArrayList<>();
+            try (DirectoryStream<Path> interfaces = Files.newDirectoryStream(NET_DIR)) {
+                for (Path iface : interfaces) {
+                    try {
+                        String address = Files.readString(iface.resolve("address"), StandardCharsets.US_ASCII);
+                        addresses.add(address.trim());
+                    } catch (IOException e) {
+                        logger.log(Level.FINEST, "No hardware address for " + iface, e);
+                    }
+                }
+            } catch (IOException e) {
+                logger.log(Level.FINEST, "Failed to list network interfaces in " + NET_DIR, e);
+            }
+            Collections.sort(addresses);
+            values.addAll(addresses);
+        }
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] digest = md.digest(String.join("\n", values).getBytes(StandardCharsets.UTF_8));
+        return SwarmClient.encodeHex(digest, 8);
+    }
+
+    private static String canonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /** Writes the identity to a temporary file first, so that readers never see a partial file. */
+    private static void store(Properties props, Path file) {
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+            try (OutputStream os = Files.newOutputStream(tmp)) {
+                props.store(os, "Swarm client identity");
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Failed to cache client identity in " + file, e);
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e2) {
+                    e.addSuppressed(e2);
+                }
+            }
+        }
+    }
+}
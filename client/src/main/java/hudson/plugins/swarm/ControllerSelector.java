@@ -0,0 +1,128 @@
+package hudson.plugins.swarm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Picks the controller to register with when the client may connect to several controllers. All
+ * controllers are probed in parallel through the health endpoint of the plugin. Controllers that
+ * are shutting down are skipped, and busy controllers are only used if no other one is reachable.
+ * Otherwise the controller with the shortest build queue wins, with ties broken by the number of
+ * Swarm agents and then by latency.
+ */
+class ControllerSelector {
+
+    private static final Logger logger = Logger.getLogger(ControllerSelector.class.getName());
+
+    static final Duration PROBE_TIMEOUT = Duration.ofSeconds(5);
+
+    private final HttpClient client;
+
+    private final Options options;
+
+    ControllerSelector(HttpClient client, Options options) {
+        this.client = client;
+        this.options = options;
+    }
+
+    /**
+     * Returns the controller to register with. If no controller answers, the first one is returned,
+     * so that the regular connection attempt reports the error and the client retries.
+     */
+    URL select(List<URL> urls) {
+        if (urls.size() == 1) {
+            return urls.get(0);
+        }
+
+        List<CompletableFuture<Health>> probes = new ArrayList<>();
+        for (URL url : urls) {
+            probes.add(probe(url));
+        }
+        CompletableFuture.allOf(probes.toArray(new CompletableFuture[0])).join();
+
+        List<Health> reachable = new ArrayList<>();
+        for (CompletableFuture<Health> probe : probes) {
+            Health health = probe.join();
+            if (health != null && !"closed".equals(health.admission)) {
+                reachable.add(health);
+            }
+        }
+        if (reachable.isEmpty()) {
+            logger.warning("No controller is reachable and accepting agents, trying " + urls.get(0));
+            return urls.get(0);
+        }
+        Health best = reachable.stream().min(Health.ORDER).get();
+        logger.info(String.format(
+                "Selected controller %s (queue length: %d, Swarm agents: %d, latency: %d ms)",
+                best.url, best.queueLength, best.swarmNodes, best.latency / 1_000_000));
+        return best.url;
+    }
+
+    /** Probes one controller, completing with {@code null} if it is unreachable or unhealthy. */
+    CompletableFuture<Health> probe(URL url) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url + "plugin/swarm/health"))
+                .timeout(PROBE_TIMEOUT)
+                .GET();
+        SwarmClient.addAuthorizationHeader(builder, options);
+        long start = System.nanoTime();
+        return client.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofInputStream())
+                .thenApply(response -> {
+                    long latency = System.nanoTime() - start;
+                    try (InputStream stream = response.body()) {
+                        if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+                            logger.fine(String.format(
+                                    "Controller %s is unhealthy. Response code: %s", url, response.statusCode()));
+                            return null;
+                        }
+                        Properties props = new Properties();
+                        props.load(stream);
+                        return new Health(url, props, latency);
+                    } catch (IOException | IllegalArgumentException e) {
+                        logger.log(Level.FINE, "Failed to read health of controller " + url, e);
+                        return null;
+                    }
+                })
+                .exceptionally(e -> {
+                    logger.log(Level.FINE, "Controller " + url + " is unreachable", e);
+                    return null;
+                });
+    }
+
+    static class Health {
+
+        static final Comparator<Health> ORDER = Comparator.<Health, Boolean>comparing(
+                        h -> "busy".equals(h.admission))
+                .thenComparingInt(h -> h.queueLength)
+                .thenComparingInt(h -> h.swarmNodes)
+                .thenComparingLong(h -> h.latency);
+
+        final URL url;
+        final int queueLength;
+        final int swarmNodes;
+        final String admission;
+        final long latency;
+
+        Health(URL url, Properties props, long latency) {
+            this.url = url;
+            this.queueLength = Integer.parseInt(props.getProperty("queueLength", "0"));
+            this.swarmNodes = Integer.parseInt(props.getProperty("swarmNodes", "0"));
+            // Older plugins do not report admission, so assume they accept agents.
+            this.admission = props.getProperty("admission", "open");
+            this.latency = latency;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package hudson.plugins.swarm;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the number of executors of the agent in line with the CPU and memory limits of its
+ * container. The limits are sampled periodically, and when they allow for a different number of
+ * executors, the controller is asked to change the number of executors of the connected agent,
+ * so that resizing the container takes effect without reconnecting. Controllers that do not
+ * support this get the new number when the agent registers again.
+ */
+class ExecutorAutoSizer implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(ExecutorAutoSizer.class.getName());
+
+    private static final long INTERVAL_MILLIS =
+            Long.getLong(ExecutorAutoSizer.class.getName() + ".intervalMillis", TimeUnit.SECONDS.toMillis(30));
+
+    private final SwarmClient swarmClient;
+    private final Options options;
+    private final CgroupResources resources;
+    private volatile URL url;
+
+    ExecutorAutoSizer(SwarmClient swarmClient, Options options, CgroupResources resources) {
+        this.swarmClient = swarmClient;
+        this.options = options;
+        this.resources = resources;
+    }
+
+    /** Sets the controller the agent is registered with. */
+    void setUrl(URL url) {
+        this.url = url;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                Thread.sleep(INTERVAL_MILLIS);
+                resize();
+            } catch (InterruptedException e) {
+                // The client is shutting down.
+                logger.log(Level.FINE, "ExecutorAutoSizer interrupted, stopping.", e);
+                return;
+            } catch (IOException | RetryException e) {
+                logger.log(Level.WARNING, "Failed to resize the executors of agent " + swarmClient.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Changes the number of executors if the resources allow for a different number.
+     *
+     * @return whether the number of executors has been changed on the controller
+     */
+    boolean resize() throws IOException, InterruptedException, RetryException {
+        int executors = resources.getExecutors(options.executorCpus, options.executorMemory);
+        if (executors == options.executors) {
+            return false;
+        }
+        URL url = this.url;
+        if (!swarmClient.getCapabilities(url).supports(Capabilities.EXECUTORS)) {
+            logger.fine(url + " cannot resize executors, using " + executors + " executors from the next registration");
+            options.executors = executors;
+            return false;
+        }
+        swarmClient.postExecutors(url, executors);
+        logger.info("Resized agent from " + options.executors + " to " + executors + " executors");
+        options.executors = executors;
+        return true;
+    }
+}
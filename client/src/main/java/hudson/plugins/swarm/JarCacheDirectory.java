@@ -0,0 +1,195 @@
+package hudson.plugins.swarm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * A Remoting JAR cache directory, which may be shared by all clients on the host. JAR files are
+ * stored under their checksum, in the layout Remoting uses, so that Remoting finds them there.
+ * Each JAR file is written under a lock shared by all processes on the host, verified against its
+ * checksum, and moved into place atomically, so that a JAR file is only written once and no client
+ * ever reads a partial one. JAR files are only deleted while no client is writing to their
+ * subdirectory.
+ */
+final class JarCacheDirectory {
+
+    private static final Logger logger = Logger.getLogger(JarCacheDirectory.class.getName());
+
+    /** Name of the lock file in each subdirectory. */
+    static final String LOCK_FILE = ".lock";
+
+    /**
+     * Locks of the subdirectories within this process. File locks are held by the whole process, so
+     * threads of the same process must not try to take them at the same time. Not monitors, so that
+     * virtual threads are not pinned while they download.
+     */
+    private static final ReentrantLock[] LOCKS = new ReentrantLock[256];
+
+    static {
+        for (int i = 0; i < LOCKS.length; i++) {
+            LOCKS[i] = new ReentrantLock();
+        }
+    }
+
+    private final Path root;
+
+    JarCacheDirectory(Path root) {
+        this.root = root;
+    }
+
+    Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns where Remoting stores the JAR file with the given checksum: in a directory named after
+     * the first byte, in a file named after the rest.
+     */
+    Path path(String checksum) {
+        return root.resolve(checksum.substring(0, 2)).resolve(checksum.substring(2) + ".jar");
+    }
+
+    /**
+     * Marks the JAR file with the given checksum as used, as Remoting does whenever it loads classes
+     * from one, so that it is evicted last.
+     *
+     * @return whether the JAR file is in the cache
+     */
+    boolean touch(String checksum) {
+        try {
+            Files.setLastModifiedTime(path(checksum), FileTime.from(Instant.now()));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the files in the subdirectories of the cache: JAR files, and temporary files left
+     * behind by clients that were killed while writing one. Lock files are not included.
+     */
+    List<Path> list() throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(root)) {
+            return files;
+        }
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root, "[0-9A-F][0-9A-F]")) {
+            for (Path dir : dirs) {
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                    for (Path entry : entries) {
+                        if (!entry.getFileName().toString().equals(LOCK_FILE) && Files.isRegularFile(entry)) {
+                            files.add(entry);
+                        }
+                    }
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Deletes a file from a subdirectory of the cache, unless a client is writing to that
+     * subdirectory. Does not wait for the lock.
+     *
+     * @return whether the file has been deleted
+     */
+    boolean tryDelete(Path file) throws IOException {
+        Path dir = file.getParent();
+        ReentrantLock threadLock = LOCKS[Integer.parseInt(dir.getFileName().toString(), 16)];
+        if (!threadLock.tryLock()) {
+            return false;
+        }
+        try (FileChannel channel =
+                        FileChannel.open(dir.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock lock = channel.tryLock()) {
+            return lock != null && Files.deleteIfExists(file);
+        } finally {
+            threadLock.unlock();
+        }
+    }
+
+    /**
+     * Stores the JAR file with the given checksum, unless it is there already. Other clients storing
+     * the same JAR file wait for the lock and then find it, rather than writing it again.
+     *
+     * @param writer writes the JAR file to the given temporary file
+     * @return whether the JAR file has been written
+     */
+    boolean store(String checksum, Writer writer) throws IOException, InterruptedException {
+        Path target = path(checksum);
+        Path dir = target.getParent();
+        Files.createDirectories(dir);
+        ReentrantLock threadLock = LOCKS[Integer.parseInt(checksum.substring(0, 2), 16)];
+        threadLock.lockInterruptibly();
+        try {
+            try (FileChannel channel = FileChannel.open(
+                            dir.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    FileLock lock = channel.lock()) {
+                if (Files.isRegularFile(target)) {
+                    return false;
+                }
+                Path temp = Files.createTempFile(dir, target.getFileName().toString(), ".tmp");
+                try {
+                    writer.write(temp);
+                    if (!checksum.equals(checksum(temp))) {
+                        logger.warning("Discarding JAR file " + checksum + ", its checksum does not match");
+                        return false;
+                    }
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                    return true;
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            }
+        } finally {
+            threadLock.unlock();
+        }
+    }
+
+    /**
+     * Computes the checksum of a file as Remoting does for its JAR cache: the SHA-256 digest folded
+     * into two longs, the even ones and the odd ones combined by XOR, in hexadecimal.
+     */
+    static String checksum(Path file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                md.update(buffer, 0, read);
+            }
+        }
+        ByteBuffer digest = ByteBuffer.wrap(md.digest());
+        long[] sums = new long[2];
+        for (int i = 0; digest.hasRemaining(); i++) {
+            sums[i % 2] ^= digest.getLong();
+        }
+        return String.format("%016X%016X", sums[0], sums[1]);
+    }
+
+    @FunctionalInterface
+    interface Writer {
+        void write(Path temp) throws IOException, InterruptedException;
+    }
+}
@@ -0,0 +1,190 @@
+package hudson.plugins.swarm;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the JAR cache within a size limit by deleting the JAR files used least recently. Remoting
+ * only updates the modification time of a JAR file when a channel resolves it, about once per
+ * channel, and then keeps loading classes from it for as long as the channel lives. So JAR files
+ * resolved since this client last connected are never evicted, however old they look, and other
+ * JAR files are only evicted once they have not been resolved for a while. Clients sharing the
+ * cache are only protected by the latter. Eviction runs in the background and skips JAR files that
+ * another client is writing rather than waiting for them, so that class loading never waits for it.
+ * Evicted JAR files are downloaded again when needed.
+ */
+class JarCacheEvictor implements Runnable, MeterBinder {
+
+    private static final Logger logger = Logger.getLogger(JarCacheEvictor.class.getName());
+
+    private static final long INTERVAL_MILLIS =
+            Long.getLong(JarCacheEvictor.class.getName() + ".intervalMillis", TimeUnit.MINUTES.toMillis(10));
+
+    /** JAR files resolved more recently are kept, since another channel may be loading classes from them. */
+    private static final long MIN_AGE_MILLIS =
+            Long.getLong(JarCacheEvictor.class.getName() + ".minAgeMillis", TimeUnit.HOURS.toMillis(1));
+
+    private final JarCacheDirectory cache;
+    private final long maxSize;
+
+    /** The size of the cache in bytes after the last run. */
+    private volatile long size;
+
+    /** The number of JAR files in the cache after the last run. */
+    private volatile long jars;
+
+    /** When this client last connected, or {@link Long#MAX_VALUE} before it first does. */
+    private volatile long connectedMillis = Long.MAX_VALUE;
+
+    private final AtomicLong evictedJars = new AtomicLong();
+    private final AtomicLong evictedBytes = new AtomicLong();
+
+    /**
+     * @param maxSize the size limit in bytes; eviction brings the cache down to 90% of it, so that it
+     *     does not run again right away
+     */
+    JarCacheEvictor(JarCacheDirectory cache, long maxSize) {
+        this.cache = cache;
+        this.maxSize = maxSize;
+    }
+
+    /** Called when this client connects, after which its channel uses the JAR files it resolves. */
+    void connected(long now) {
+        connectedMillis = now;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                evict(System.currentTimeMillis());
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to evict JAR files from " + cache.getRoot(), e);
+            }
+            try {
+                Thread.sleep(INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                // The client is shutting down.
+                logger.log(Level.FINE, "JarCacheEvictor interrupted, stopping.", e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used JAR files if the cache exceeds its limit, and temporary files
+     * left behind by clients that were killed while writing one.
+     *
+     * @return the number of JAR files evicted
+     */
+    int evict(long now) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long total = 0;
+        for (Path file : cache.list()) {
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            long lastUsed = attributes.lastModifiedTime().toMillis();
+            if (!file.getFileName().toString().endsWith(".jar")) {
+                if (now - lastUsed >= MIN_AGE_MILLIS) {
+                    tryDelete(file);
+                }
+                continue;
+            }
+            entries.add(new Entry(file, attributes.size(), lastUsed));
+            total += attributes.size();
+        }
+
+        int evicted = 0;
+        if (total > maxSize) {
+            long target = maxSize / 10 * 9;
+            long connected = connectedMillis;
+            entries.sort(Comparator.comparingLong(entry -> entry.lastUsed));
+            for (Entry entry : entries) {
+                if (total <= target || now - entry.lastUsed < MIN_AGE_MILLIS || entry.lastUsed >= connected) {
+                    break;
+                }
+                if (tryDelete(entry.file)) {
+                    total -= entry.size;
+                    evicted++;
+                    evictedJars.incrementAndGet();
+                    evictedBytes.addAndGet(entry.size);
+                }
+            }
+            if (total > maxSize) {
+                logger.info(String.format(
+                        "JAR cache %s exceeds its limit of %d bytes with %d bytes in recently used JAR files",
+                        cache.getRoot(), maxSize, total));
+            }
+        }
+        size = total;
+        jars = entries.size() - evicted;
+        if (evicted > 0) {
+            logger.fine("Evicted " + evicted + " JAR files from " + cache.getRoot());
+        }
+        return evicted;
+    }
+
+    /** Deletes a file unless it is in use, leaving it for the next run if that fails. */
+    private boolean tryDelete(Path file) {
+        try {
+            return cache.tryDelete(file);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Failed to delete " + file + " from the JAR cache", e);
+            return false;
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("swarm.jar.cache.size", this, evictor -> evictor.size)
+                .description("The size of the JAR cache")
+                .baseUnit(BaseUnits.BYTES)
+                .register(registry);
+        Gauge.builder("swarm.jar.cache.max.size", this, evictor -> evictor.maxSize)
+                .description("The size limit of the JAR cache")
+                .baseUnit(BaseUnits.BYTES)
+                .register(registry);
+        Gauge.builder("swarm.jar.cache.jars", this, evictor -> evictor.jars)
+                .description("The number of JAR files in the JAR cache")
+                .register(registry);
+        FunctionCounter.builder("swarm.jar.cache.evictions", evictedJars, AtomicLong::get)
+                .description("The number of JAR files evicted from the JAR cache")
+                .register(registry);
+        FunctionCounter.builder("swarm.jar.cache.evicted", evictedBytes, AtomicLong::get)
+                .description("The size of the JAR files evicted from the JAR cache")
+                .baseUnit(BaseUnits.BYTES)
+                .register(registry);
+    }
+
+    private static class Entry {
+
+        final Path file;
+        final long size;
+        final long lastUsed;
+
+        Entry(Path file, long size, long lastUsed) {
+            this.file = file;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package hudson.plugins.swarm;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Downloads the JAR files listed by the {@code jarManifest} of the controller into the Remoting JAR
+ * cache of the agent, several at a time, so that the first build does not wait for Remoting to
+ * fetch them one by one. See {@link JarCacheDirectory} for how they are stored. Controllers that do
+ * not support this are not asked.
+ */
+class JarCachePrefetcher {
+
+    private static final Logger logger = Logger.getLogger(JarCachePrefetcher.class.getName());
+
+    /** The number of JAR files downloaded at the same time. */
+    private static final int PARALLELISM = Integer.getInteger(JarCachePrefetcher.class.getName() + ".parallelism", 4);
+
+    private final SwarmClient swarmClient;
+    private final Options options;
+    private final JarCacheDirectory cache;
+
+    JarCachePrefetcher(SwarmClient swarmClient, Options options, Path cacheDir) {
+        this.swarmClient = swarmClient;
+        this.options = options;
+        this.cache = new JarCacheDirectory(cacheDir);
+    }
+
+    /** Returns the JAR cache Remoting uses with the given options. */
+    static Path getCacheDir(Options options) {
+        if (options.sharedJarCache != null) {
+            return options.sharedJarCache.toPath();
+        }
+        if (options.jarCache != null) {
+            return options.jarCache.toPath();
+        }
+        if (!options.disableWorkDir) {
+            File workDir = options.workDir != null ? options.workDir : options.fsroot;
+            String internalDir = options.internalDir != null ? options.internalDir.getPath() : "remoting";
+            return workDir.toPath().resolve(internalDir).resolve("jarCache");
+        }
+        return Paths.get(System.getProperty("user.home"), ".jenkins", "cache", "jars");
+    }
+
+    /**
+     * Downloads the JAR files of the manifest that are not in the cache yet.
+     *
+     * @return the number of JAR files downloaded
+     */
+    int prefetch(URL url) throws IOException, InterruptedException, RetryException {
+        if (!swarmClient.getCapabilities(url).supports(Capabilities.JAR_MANIFEST)) {
+            logger.finest(() -> url + " does not list JAR files");
+            return 0;
+        }
+        HttpClient client = swarmClient.getHttpClient();
+        HttpRequest.Builder builder =
+                HttpRequest.newBuilder(URI.create(url + "plugin/swarm/jarManifest")).GET();
+        SwarmClient.addAuthorizationHeader(builder, options);
+        HttpResponse<String> response = client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+            throw new RetryException(String.format(
+                    "Failed to get the JAR manifest. Response code: %s%n%s", response.statusCode(), response.body()));
+        }
+
+        Semaphore permits = new Semaphore(PARALLELISM);
+        List<CompletableFuture<Boolean>> downloads = new ArrayList<>();
+        for (String line : response.body().split("\n")) {
+            String checksum = line.trim().split(" ")[0].toUpperCase(Locale.ROOT);
+            // JAR files usually needed are evicted last, even before they are used.
+            if (!checksum.matches("[0-9A-F]{32}") || cache.touch(checksum)) {
+                continue;
+            }
+            permits.acquire();
+            downloads.add(CompletableFuture.supplyAsync(
+                            () -> download(client, url, checksum), swarmClient.getSupervisor())
+                    .whenComplete((downloaded, e) -> permits.release()));
+        }
+        SwarmClient.await(CompletableFuture.allOf(downloads.toArray(new CompletableFuture<?>[0])));
+        return (int) downloads.stream().filter(CompletableFuture::join).count();
+    }
+
+    /** Downloads a JAR file, returning whether it has been added to the cache. */
+    private boolean download(HttpClient client, URL url, String checksum) {
+        try {
+            return cache.store(checksum, temp -> {
+                HttpRequest.Builder builder = HttpRequest.newBuilder(
+                                URI.create(url + "plugin/swarm/jar?checksum=" + checksum))
+                        .GET();
+                SwarmClient.addAuthorizationHeader(builder, options);
+                HttpResponse<Path> response = client.send(builder.build(), HttpResponse.BodyHandlers.ofFile(temp));
+                if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("Response code: " + response.statusCode());
+                }
+            });
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Failed to download JAR file " + checksum, e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package hudson.plugins.swarm;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+/**
+ * Formats log records as JSON objects, one per line, for log collectors. Set it as the formatter of
+ * a handler in the {@code logging.properties} file.
+ */
+public class JsonFormatter extends Formatter {
+
+    @Override
+    public String format(LogRecord record) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"time\":\"").append(record.getInstant()).append('"');
+        sb.append(",\"level\":\"").append(record.getLevel().getName()).append('"');
+        if (record.getLoggerName() != null) {
+            sb.append(",\"logger\":");
+            JsonUtils.appendString(sb, record.getLoggerName());
+        }
+        sb.append(",\"thread\":").append(record.getLongThreadID());
+        sb.append(",\"message\":");
+        JsonUtils.appendString(sb, String.valueOf(formatMessage(record)));
+        if (record.getThrown() != null) {
+            StringWriter stackTrace = new StringWriter();
+            record.getThrown().printStackTrace(new PrintWriter(stackTrace));
+            sb.append(",\"thrown\":");
+            JsonUtils.appendString(sb, stackTrace.toString());
+        }
+        sb.append('}').append(System.lineSeparator());
+        return sb.toString();
+    }
+}
@@ -0,0 +1,23 @@
+package hudson.plugins.swarm;
+
+/** Writes JSON for {@link JsonFormatter} and {@link Tracing}, without a JSON library in the client. */
+final class JsonUtils {
+
+    private JsonUtils() {}
+
+    /** Appends the given value as a JSON string. */
+    static void appendString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -1,6 +1,5 @@
 package hudson.plugins.swarm;
 
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -17,7 +16,6 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -33,22 +31,25 @@ public class LabelFileWatcher implements Runnable {
 
     private boolean isRunning = false;
     private final Options options;
+    private final SwarmClient swarmClient;
     private final String name;
     private String labels;
     private final String[] args;
     private final URL url;
 
-    public LabelFileWatcher(URL url, Options options, String name, String... args) throws IOException {
+    public LabelFileWatcher(URL url, Options options, SwarmClient swarmClient, String... args) throws IOException {
         logger.config("LabelFileWatcher() constructed with: " + options.labelsFile + " and " + String.join(", ", args));
         this.url = url;
         this.options = options;
-        this.name = name;
+        this.swarmClient = swarmClient;
+        this.name = swarmClient.getName();
         this.labels = Files.readString(Paths.get(options.labelsFile), StandardCharsets.UTF_8);
         this.args = args;
         logger.config("Labels loaded: " + labels);
     }
 
     private void softLabelUpdate(String sNewLabels) throws SoftLabelUpdateException {
+        // If the controller supports bulk labels, replace all labels at once. Otherwise:
         // 1. get labels from controller
         // 2. issue remove command for all old labels
         // 3. issue update commands for new labels
@@ -56,11 +57,23 @@ public class LabelFileWatcher implements Runnable {
                 Level.CONFIG,
                 "NOTICE: " + options.labelsFile + " has changed.  Attempting soft label update (no node restart)");
 
+        HttpClient client = swarmClient.getHttpClient();
+        try {
+            if (swarmClient.getCapabilities(url).supports(Capabilities.BULK_LABELS)) {
+                logger.log(Level.CONFIG, "Labels to be set: " + sNewLabels);
+                SwarmClient.postLabelSet(name, sNewLabels, client, options, url);
+                return;
+            }
+        } catch (IOException | InterruptedException | RetryException e) {
+            String msg = "Exception when setting labels on " + url;
+            logger.log(Level.SEVERE, msg, e);
+            throw new SoftLabelUpdateException(msg);
+        }
+
         logger.log(Level.CONFIG, "Getting current labels from controller");
 
         Document xml;
 
-        HttpClient client = SwarmClient.createHttpClient(options);
         HttpRequest.Builder builder = HttpRequest.newBuilder(
                         URI.create(url + "plugin/swarm/getSlaveLabels?name=" + name))
                 .GET();
@@ -94,25 +107,9 @@ public class LabelFileWatcher implements Runnable {
         logger.log(Level.CONFIG, "Labels to be removed: " + labelStr);
 
         // remove the labels in 1000 char blocks
-        List<String> lLabels = List.of(labelStr.split("\\s+"));
-        StringBuilder sb = new StringBuilder();
-        for (String s : lLabels) {
-            sb.append(s);
-            sb.append(" ");
-            if (sb.length() > 1000) {
-                try {
-                    SwarmClient.postLabelRemove(name, sb.toString(), client, options, url);
-                } catch (IOException | InterruptedException | RetryException e) {
-                    String msg = "Exception when removing label from " + url;
-                    logger.log(Level.SEVERE, msg, e);
-                    throw new SoftLabelUpdateException(msg);
-                }
-                sb = new StringBuilder();
-            }
-        }
-        if (sb.length() > 0) {
+        for (String chunk : SwarmClient.chunkLabels(labelStr)) {
             try {
-                SwarmClient.postLabelRemove(name, sb.toString(), client, options, url);
+                SwarmClient.postLabelRemove(name, chunk, client, options, url);
             } catch (IOException | InterruptedException | RetryException e) {
                 String msg = "Exception when removing label from " + url;
                 logger.log(Level.SEVERE, msg, e);
@@ -122,26 +119,9 @@ public class LabelFileWatcher implements Runnable {
 
         // now add the labels back on
         logger.log(Level.CONFIG, "Labels to be added: " + sNewLabels);
-        lLabels = List.of(sNewLabels.split("\\s+"));
-        sb = new StringBuilder();
-        for (String s : lLabels) {
-            sb.append(s);
-            sb.append(" ");
-            if (sb.length() > 1000) {
-                try {
-                    SwarmClient.postLabelAppend(name, sb.toString(), client, options, url);
-                } catch (IOException | InterruptedException | RetryException e) {
-                    String msg = "Exception when appending label to " + url;
-                    logger.log(Level.SEVERE, msg, e);
-                    throw new SoftLabelUpdateException(msg);
-                }
-                sb = new StringBuilder();
-            }
-        }
-
-        if (sb.length() > 0) {
+        for (String chunk : SwarmClient.chunkLabels(sNewLabels)) {
             try {
-                SwarmClient.postLabelAppend(name, sb.toString(), client, options, url);
+                SwarmClient.postLabelAppend(name, chunk, client, options, url);
             } catch (IOException | InterruptedException | RetryException e) {
                 String msg = "Exception when appending label to " + url;
                 logger.log(Level.SEVERE, msg, e);
@@ -196,8 +176,6 @@ public class LabelFileWatcher implements Runnable {
     }
 
     @Override
-    @SuppressFBWarnings(value = "DM_EXIT", justification = "behavior is intentional")
-    @SuppressWarnings("lgtm[jenkins/unsafe-calls]")
     public void run() {
         String sTempLabels;
         isRunning = true;
@@ -211,7 +189,9 @@ public class LabelFileWatcher implements Runnable {
                         String.format("LabelFileWatcher sleeping %d milliseconds", LABEL_FILE_WATCHER_INTERVAL_MILLIS));
                 Thread.sleep(LABEL_FILE_WATCHER_INTERVAL_MILLIS);
             } catch (InterruptedException e) {
-                logger.log(Level.WARNING, "LabelFileWatcher InterruptedException occurred.", e);
+                // The client is shutting down.
+                logger.log(Level.FINE, "LabelFileWatcher interrupted, stopping.", e);
+                return;
             }
             try {
                 sTempLabels = Files.readString(Paths.get(options.labelsFile), StandardCharsets.UTF_8);
@@ -223,6 +203,8 @@ public class LabelFileWatcher implements Runnable {
                         // through the plugin APIs
                         softLabelUpdate(sTempLabels);
                         labels = Files.readString(Paths.get(options.labelsFile), StandardCharsets.UTF_8);
+                        // The update replaced the resource labels as well.
+                        swarmClient.resetResourceLabels();
                     } catch (SoftLabelUpdateException e) {
                         // if we're unable to
                         logger.log(
@@ -246,6 +228,6 @@ public class LabelFileWatcher implements Runnable {
         }
 
         logger.warning("LabelFileWatcher no longer running. Shutting down this Swarm client.");
-        System.exit(0);
+        swarmClient.exitWithStatus(0);
     }
 }
@@ -0,0 +1,86 @@
+package hudson.plugins.swarm;
+
+import com.sun.management.OperatingSystemMXBean;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reports the CPU and memory utilization of the host, or of the container of the client, to the
+ * controller, which places builds on the least loaded Swarm agents. Controllers that do not
+ * support this are not sent anything.
+ */
+class LoadReporter implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(LoadReporter.class.getName());
+
+    private static final long INTERVAL_MILLIS =
+            Long.getLong(LoadReporter.class.getName() + ".intervalMillis", TimeUnit.SECONDS.toMillis(15));
+
+    private final SwarmClient swarmClient;
+    private final CgroupResources resources;
+    private volatile URL url;
+
+    LoadReporter(SwarmClient swarmClient, CgroupResources resources) {
+        this.swarmClient = swarmClient;
+        this.resources = resources;
+    }
+
+    /** Sets the controller the agent is registered with. */
+    void setUrl(URL url) {
+        this.url = url;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                report();
+            } catch (IOException | RetryException e) {
+                logger.log(Level.FINE, "Failed to report the load of agent " + swarmClient.getName(), e);
+            } catch (InterruptedException e) {
+                logger.log(Level.FINE, "LoadReporter interrupted, stopping.", e);
+                return;
+            }
+            try {
+                Thread.sleep(INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                // The client is shutting down.
+                logger.log(Level.FINE, "LoadReporter interrupted, stopping.", e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reports the current load.
+     *
+     * @return whether the controller supports load reports
+     */
+    boolean report() throws IOException, InterruptedException, RetryException {
+        URL url = this.url;
+        if (!swarmClient.getCapabilities(url).supports(Capabilities.LOAD)) {
+            logger.finest(() -> url + " does not accept load reports");
+            return false;
+        }
+        // Negative values are reported as unknown, like the CPU load before the first sample.
+        double cpu = -1;
+        double memory = resources.getMemoryUtilization();
+        java.lang.management.OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof OperatingSystemMXBean) {
+            // The CPU load is limited to the container on Linux.
+            OperatingSystemMXBean os = (OperatingSystemMXBean) bean;
+            cpu = os.getCpuLoad();
+            long total = os.getTotalMemorySize();
+            if (memory < 0 && total > 0) {
+                // Without /proc/meminfo, like on Windows.
+                memory = 1 - (double) os.getFreeMemorySize() / total;
+            }
+        }
+        swarmClient.postLoad(url, cpu, memory);
+        return true;
+    }
+}
@@ -21,18 +21,46 @@ public class Options {
                     + " options are allowed.")
     public List<String> labels = new ArrayList<>();
 
+    @Option(
+            name = "-profile",
+            usage = "Name of a profile defined on the controller that supplies labels, tool locations,"
+                    + " environment variables, and executors for this agent.")
+    public String profile;
+
     @Option(name = "-fsroot", usage = "Remote root directory.")
     public File fsroot = new File(".");
 
-    @Option(name = "-executors", usage = "Number of executors")
+    @Option(name = "-executors", usage = "Number of executors", forbids = "-autoExecutors")
     public int executors = Runtime.getRuntime().availableProcessors();
 
+    @Option(
+            name = "-autoExecutors",
+            usage = "Size the executors to the CPU and memory limits of the container (cgroup v2), or of the"
+                    + " host outside of containers, and follow changes of the limits while connected.",
+            forbids = "-executors")
+    public boolean autoExecutors;
+
+    @Option(name = "-executorCpus", usage = "CPUs needed by each executor with -autoExecutors.")
+    public double executorCpus = 1;
+
+    @Option(
+            name = "-executorMemory",
+            usage = "Memory in MiB needed by each executor with -autoExecutors, or 0 to only consider CPUs.")
+    public int executorMemory;
+
     @Option(
             name = "-url",
             aliases = "-master",
             usage = "The complete target Jenkins URL like 'http://server:8080/jenkins/'.")
     public String url;
 
+    @Option(
+            name = "-failoverUrl",
+            usage = "The URL of another Jenkins controller this agent can serve. The client registers"
+                    + " with the least loaded reachable controller and fails over immediately when"
+                    + " disconnected. Multiple options are allowed.")
+    public List<String> failoverUrls = new ArrayList<>();
+
     @Option(
             name = "-tunnel",
             usage = "Connect to the specified host and port, instead of connecting directly to"
@@ -94,14 +122,48 @@ public class Options {
     @Option(name = "-disableClientsUniqueId", usage = "Disable client's unique ID.")
     public boolean disableClientsUniqueId;
 
+    @Option(
+            name = "-machineIdFile",
+            usage = "File containing a stable ID of this machine. The client's unique ID is cached in the"
+                    + " working directory as long as the machine ID does not change. Default is"
+                    + " /etc/machine-id or /var/lib/dbus/machine-id if present.")
+    public File machineIdFile;
+
     @Option(name = "-deleteExistingClients", usage = "Delete any existing agent with the same name.")
     public boolean deleteExistingClients;
 
     @Option(
             name = "-keepDisconnectedClients",
-            usage = "Do not remove clients from the controller when the agent becomes disconnected.")
+            usage = "Do not remove clients from the controller when the agent becomes disconnected."
+                    + " On restart, the client reconnects right away with the name and secret stored in"
+                    + " the working directory, and only registers again if its options have changed or"
+                    + " the controller rejects it.")
     public boolean keepDisconnectedClients;
 
+    @Option(
+            name = "-drainOnShutdown",
+            usage = "When the client is terminated, ask the controller to drain the agent: no new builds are"
+                    + " scheduled on it and the client waits for the running builds to finish before exiting.")
+    public boolean drainOnShutdown;
+
+    @Option(
+            name = "-drainTimeout",
+            usage = "Max time to wait for the agent to be drained on shutdown in seconds. Default is 300 seconds.")
+    public int drainTimeout = 300;
+
+    @Option(
+            name = "-idleTimeout",
+            usage = "Ask the controller to disconnect the agent after it has been idle for this many minutes,"
+                    + " unless builds waiting in the queue could run on it. The client then exits, unless"
+                    + " -sleepWhenIdle is set. 0 keeps the agent connected.")
+    public int idleTimeout = 0;
+
+    @Option(
+            name = "-sleepWhenIdle",
+            usage = "When the agent has been disconnected for being idle, wait until builds waiting in the"
+                    + " queue need it and register again, rather than exiting.")
+    public boolean sleepWhenIdle;
+
     @Option(
             name = "-mode",
             usage = "The mode controlling how Jenkins allocates jobs to agents. Can be either '"
@@ -166,6 +228,19 @@ public class Options {
                     + " client is restarted.")
     public String labelsFile;
 
+    @Option(
+            name = "-reportLoad",
+            usage = "Report the CPU and memory utilization of this host to the controller, which places builds"
+                    + " that can only run on Swarm agents on the least loaded one.")
+    public boolean reportLoad;
+
+    @Option(
+            name = "-resourceLabels",
+            usage = "Publish labels describing the current resources of the agent, updated as they change:"
+                    + " 'disk' (usable space under fsroot), 'memory' (free memory), 'load' (load average per"
+                    + " CPU), or the name of a provider on the class path. Multiple options are allowed.")
+    public List<String> resourceLabels = new ArrayList<>();
+
     @Option(
             name = "-pidFile",
             usage = "File to write PID to. The client will refuse to start if this file exists "
@@ -191,9 +266,30 @@ public class Options {
             forbids = "-disableWorkDir")
     public File internalDir;
 
-    @Option(name = "-jar-cache", usage = "Cache directory that stores JAR files sent from the controller.")
+    @Option(
+            name = "-jar-cache",
+            usage = "Cache directory that stores JAR files sent from the controller.",
+            forbids = "-sharedJarCache")
     public File jarCache;
 
+    @Option(
+            name = "-jarCacheMaxSize",
+            usage = "Size limit of the JAR cache in MiB, or 0 for no limit. The JAR files used least recently are"
+                    + " deleted in the background when the JAR cache grows larger.")
+    public int jarCacheMaxSize = 0;
+
+    @Option(
+            name = "-sharedJarCache",
+            usage = "JAR cache directory shared by all clients on this host. JAR files are downloaded into it"
+                    + " while connecting, once per host rather than once per agent. Implies -prefetchJars.")
+    public File sharedJarCache;
+
+    @Option(
+            name = "-prefetchJars",
+            usage = "Download the JAR files the controller usually sends to agents into the JAR cache while"
+                    + " connecting, several at a time, rather than one by one during the first build.")
+    public boolean prefetchJars;
+
     @Option(
             name = "-failIfWorkDirIsMissing",
             usage = "Fail if the requested Remoting working directory or internal directory is missing.",
@@ -205,6 +301,19 @@ public class Options {
             usage = "If defined, then start an HTTP service on this port for Prometheus metrics.")
     public int prometheusPort = -1;
 
+    @Option(
+            name = "-traceFile",
+            usage = "Record the phases of each registration as OpenTelemetry spans and append them to"
+                    + " this file in the OTLP JSON format. The controller records its spans of the same"
+                    + " registrations if tracing is enabled there.")
+    public File traceFile;
+
+    @Option(
+            name = "-virtualThreads",
+            usage = "Run the background tasks of the client, like reconnecting, watching the labels file,"
+                    + " and serving metrics, on virtual threads. Requires Java 21 or newer.")
+    public boolean virtualThreads;
+
     @Option(name = "-config", usage = "YAML configuration file containing the options.")
     public File config;
 }
@@ -0,0 +1,167 @@
+package hudson.plugins.swarm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The name and secret assigned by the controller at the last registration. Agents that are kept
+ * on the controller while disconnected can reconnect with them right away after a restart instead
+ * of registering again, which saves several requests and spares the controller from updating the
+ * node. The state is stored in the working directory, readable only by its owner, and is only used
+ * if the registration options are unchanged, as recorded by their ETag.
+ */
+final class RegistrationState {
+
+    private static final Logger logger = Logger.getLogger(RegistrationState.class.getName());
+
+    static final String FILE_NAME = "swarm-client-registration.properties";
+
+    final String url;
+    final String name;
+    final String secret;
+    final String etag;
+
+    RegistrationState(String url, String name, String secret, String etag) {
+        this.url = url;
+        this.name = name;
+        this.secret = secret;
+        this.etag = etag;
+    }
+
+    /**
+     * Returns the stored state if it can be used to reconnect to the given controller, or {@code
+     * null} otherwise.
+     */
+    static RegistrationState load(Options options, URL url, String hash) {
+        Path file = getFile(options);
+        if (file == null || !Files.isRegularFile(file)) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (InputStream is = Files.newInputStream(file)) {
+            props.load(is);
+        } catch (IOException | IllegalArgumentException e) {
+            logger.log(Level.FINE, "Failed to read registration state from " + file, e);
+            return null;
+        }
+        RegistrationState state = new RegistrationState(
+                props.getProperty("url"),
+                props.getProperty("name"),
+                props.getProperty("secret"),
+                props.getProperty("etag"));
+        if (!url.toString().equals(state.url) || state.name == null || !etag(options, hash).equals(state.etag)) {
+            logger.fine("Registration state in " + file + " does not match the options, ignoring it");
+            return null;
+        }
+        return state;
+    }
+
+    static void save(Options options, URL url, String hash, String name, String secret) {
+        Path file = getFile(options);
+        if (file == null) {
+            return;
+        }
+        Properties props = new Properties();
+        props.setProperty("url", url.toString());
+        props.setProperty("name", name);
+        if (secret != null) {
+            props.setProperty("secret", secret);
+        }
+        props.setProperty("etag", etag(options, hash));
+        store(props, file);
+    }
+
+    static void delete(Options options) {
+        Path file = getFile(options);
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Failed to delete registration state " + file, e);
+        }
+    }
+
+    /**
+     * Returns the file in the working directory that holds the state, or {@code null} if there is
+     * no working directory or the agent is removed from the controller when it disconnects, which
+     * makes the state useless.
+     */
+    private static Path getFile(Options options) {
+        if (options.disableWorkDir || !options.keepDisconnectedClients) {
+            return null;
+        }
+        File workDir = options.workDir != null ? options.workDir : options.fsroot;
+        return workDir.isDirectory() ? workDir.toPath().resolve(FILE_NAME) : null;
+    }
+
+    /** Identifies the options sent when registering, so that changing any of them registers again. */
+    static String etag(Options options, String hash) {
+        Map<String, Object> values = new TreeMap<>();
+        values.put("name", options.name);
+        values.put("description", options.description);
+        values.put("labels", String.join(" ", options.labels));
+        values.put("profile", options.profile);
+        values.put("fsroot", options.fsroot.getAbsolutePath());
+        values.put("executors", options.executors);
+        values.put("mode", options.mode);
+        values.put("idleTimeout", options.idleTimeout);
+        values.put("hash", hash);
+        values.put("toolLocations", options.toolLocations == null ? null : new TreeMap<>(options.toolLocations));
+        values.put(
+                "environmentVariables",
+                options.environmentVariables == null ? null : new TreeMap<>(options.environmentVariables));
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return SwarmClient.encodeHex(digest.digest(values.toString().getBytes(StandardCharsets.UTF_8)), 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Writes the state to a temporary file only readable by its owner, and then moves it in place. */
+    private static void store(Properties props, Path file) {
+        Path tmp = null;
+        try {
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                tmp = Files.createTempFile(
+                        file.getParent(),
+                        FILE_NAME,
+                        ".tmp",
+                        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            } else {
+                tmp = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+            }
+            try (OutputStream os = Files.newOutputStream(tmp)) {
+                props.store(os, "Swarm client registration");
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Failed to store registration state in " + file, e);
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e2) {
+                    e.addSuppressed(e2);
+                }
+            }
+        }
+    }
+}
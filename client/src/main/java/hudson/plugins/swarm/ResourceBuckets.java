@@ -0,0 +1,127 @@
+package hudson.plugins.swarm;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Quantizes a resource into labels with hysteresis, so that values hovering around a threshold do
+ * not make the labels flap.
+ *
+ * <p>Buckets are either exclusive, like {@code load-low} and {@code load-high}, where a value only
+ * moves to another bucket once it is clearly outside of its current one, or cumulative, like
+ * {@code disk-gt-100g}, where a value has the label of every threshold it reaches, so that
+ * {@code disk-gt-100g} also matches agents with 600 GB. A cumulative label is dropped as soon as the
+ * value falls below its threshold, but only gained once the value is clearly above it. Until then,
+ * the label of the values below the first threshold is kept, so that there is always a label.
+ */
+public final class ResourceBuckets {
+
+    private final double[] thresholds;
+
+    private final String[] labels;
+
+    private final double hysteresis;
+
+    private final boolean cumulative;
+
+    /**
+     * Creates exclusive buckets.
+     *
+     * @param thresholds the ascending bounds between the buckets
+     * @param labels the labels of the buckets, one more than there are thresholds
+     * @param hysteresis the fraction of a threshold by which a value must cross it to leave its
+     *     current bucket
+     */
+    public ResourceBuckets(double[] thresholds, String[] labels, double hysteresis) {
+        this(thresholds, labels, hysteresis, false);
+    }
+
+    /**
+     * @param thresholds the ascending bounds between the buckets
+     * @param labels the labels of the buckets, one more than there are thresholds: with cumulative
+     *     buckets, the label of values below the first threshold followed by the label of each
+     *     threshold
+     * @param hysteresis the fraction of a threshold by which a value must cross it to change bucket,
+     *     or with cumulative buckets to gain the label of the threshold
+     * @param cumulative whether a value has the labels of all thresholds it reaches
+     */
+    public ResourceBuckets(double[] thresholds, String[] labels, double hysteresis, boolean cumulative) {
+        if (labels.length != thresholds.length + 1) {
+            throw new IllegalArgumentException("Expected " + (thresholds.length + 1) + " labels");
+        }
+        this.thresholds = thresholds.clone();
+        this.labels = labels.clone();
+        this.hysteresis = hysteresis;
+        this.cumulative = cumulative;
+    }
+
+    /**
+     * Returns the labels of the value: the label of its bucket, or with cumulative buckets the labels
+     * of all thresholds it reaches, given the labels returned for the previous value.
+     */
+    public Set<String> labels(double value, Collection<String> previous) {
+        if (!cumulative) {
+            return Set.of(label(value, previous));
+        }
+        int level = bucket(value);
+        int last = -1;
+        for (int i = 0; i < labels.length; i++) {
+            if (previous.contains(labels[i])) {
+                last = i;
+            }
+        }
+        if (last >= 0) {
+            // Only delay gaining the labels above the previous ones, never keep labels no longer met.
+            while (level > last && value < thresholds[level - 1] * (1 + hysteresis)) {
+                level--;
+            }
+        }
+        Set<String> result = new LinkedHashSet<>();
+        if (level == 0) {
+            // Below the first threshold, or not clearly above it yet.
+            result.add(labels[0]);
+        }
+        for (int i = 1; i <= level; i++) {
+            result.add(labels[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the label of the bucket of the value, staying with the bucket of the previous label
+     * while the value is within the hysteresis. Only meaningful for exclusive buckets.
+     */
+    public String label(double value, Collection<String> previous) {
+        int bucket = bucket(value);
+        int last = -1;
+        for (int i = 0; i < labels.length; i++) {
+            if (previous.contains(labels[i])) {
+                last = i;
+                break;
+            }
+        }
+        if (last >= 0 && last != bucket) {
+            double low = last == 0 ? Double.NEGATIVE_INFINITY : thresholds[last - 1] * (1 - hysteresis);
+            double high = last == thresholds.length ? Double.POSITIVE_INFINITY : thresholds[last] * (1 + hysteresis);
+            if (value >= low && value < high) {
+                return labels[last];
+            }
+        }
+        return labels[bucket];
+    }
+
+    /** Whether the label is one of the labels of the buckets. */
+    public boolean contains(String label) {
+        return Arrays.asList(labels).contains(label);
+    }
+
+    private int bucket(double value) {
+        int bucket = 0;
+        while (bucket < thresholds.length && value >= thresholds[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+}
@@ -0,0 +1,31 @@
+package hudson.plugins.swarm;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Describes the current resources of the agent, like its free disk space, as labels. Selected with
+ * the {@code -resourceLabels} option by name. Besides the built-in providers, providers on the
+ * class path are found through {@link java.util.ServiceLoader}.
+ *
+ * <p>Providers are sampled periodically, so their labels should change only when the resources
+ * change significantly, for example by quantizing values into {@link ResourceBuckets}.
+ */
+public interface ResourceLabelProvider {
+
+    /** The name by which the provider is selected. */
+    String getName();
+
+    /**
+     * Returns the labels describing the resources now.
+     *
+     * @param previous the labels returned by the last call, or an empty set for the first call
+     */
+    Set<String> getLabels(Options options, Set<String> previous) throws IOException;
+
+    /**
+     * Whether the label may have been returned by this provider, so that it can be removed from
+     * the agent when it is no longer returned, even by an earlier run of the client.
+     */
+    boolean owns(String label);
+}
@@ -0,0 +1,147 @@
+package hudson.plugins.swarm;
+
+import com.sun.management.OperatingSystemMXBean;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/** The built-in {@link ResourceLabelProvider}s, and the lookup of providers by name. */
+final class ResourceLabelProviders {
+
+    private static final double GIB = 1024 * 1024 * 1024;
+
+    /** Values must cross a threshold by this fraction to change the label. */
+    private static final double HYSTERESIS = 0.1;
+
+    private ResourceLabelProviders() {}
+
+    /**
+     * Returns the providers with the given names.
+     *
+     * @throws IllegalArgumentException if there is no provider with one of the names
+     */
+    static List<ResourceLabelProvider> get(List<String> names) {
+        Map<String, ResourceLabelProvider> available = new LinkedHashMap<>();
+        for (ResourceLabelProvider provider : List.of(new Disk(), new Memory(), new Load())) {
+            available.put(provider.getName(), provider);
+        }
+        for (ResourceLabelProvider provider : ServiceLoader.load(ResourceLabelProvider.class)) {
+            available.putIfAbsent(provider.getName(), provider);
+        }
+        List<ResourceLabelProvider> result = new ArrayList<>();
+        for (String name : names) {
+            ResourceLabelProvider provider = available.get(name);
+            if (provider == null) {
+                throw new IllegalArgumentException(
+                        "Unknown resource label provider '" + name + "'. Available: " + available.keySet());
+            }
+            result.add(provider);
+        }
+        return result;
+    }
+
+    private static OperatingSystemMXBean getOperatingSystem() {
+        java.lang.management.OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        return bean instanceof OperatingSystemMXBean ? (OperatingSystemMXBean) bean : null;
+    }
+
+    /**
+     * The usable disk space under the remote root directory: {@code disk-gt-100g} and the labels of
+     * the lower thresholds, or {@code disk-lt-10g}.
+     */
+    static final class Disk implements ResourceLabelProvider {
+
+        static final ResourceBuckets BUCKETS = new ResourceBuckets(
+                new double[] {10 * GIB, 50 * GIB, 100 * GIB, 500 * GIB, 1024 * GIB},
+                new String[] {
+                    "disk-lt-10g", "disk-gt-10g", "disk-gt-50g", "disk-gt-100g", "disk-gt-500g", "disk-gt-1t"
+                },
+                HYSTERESIS,
+                true);
+
+        @Override
+        public String getName() {
+            return "disk";
+        }
+
+        @Override
+        public Set<String> getLabels(Options options, Set<String> previous) throws IOException {
+            long usable = Files.getFileStore(options.fsroot.toPath()).getUsableSpace();
+            return BUCKETS.labels(usable, previous);
+        }
+
+        @Override
+        public boolean owns(String label) {
+            return BUCKETS.contains(label);
+        }
+    }
+
+    /**
+     * The free memory: {@code mem-gt-4g} and the labels of the lower thresholds, or
+     * {@code mem-lt-1g}. Within a container, this is the memory left below
+     * its limit.
+     */
+    static final class Memory implements ResourceLabelProvider {
+
+        static final ResourceBuckets BUCKETS = new ResourceBuckets(
+                new double[] {GIB, 4 * GIB, 16 * GIB, 64 * GIB},
+                new String[] {"mem-lt-1g", "mem-gt-1g", "mem-gt-4g", "mem-gt-16g", "mem-gt-64g"},
+                HYSTERESIS,
+                true);
+
+        @Override
+        public String getName() {
+            return "memory";
+        }
+
+        @Override
+        public Set<String> getLabels(Options options, Set<String> previous) {
+            OperatingSystemMXBean os = getOperatingSystem();
+            if (os == null) {
+                return Collections.emptySet();
+            }
+            return BUCKETS.labels(os.getFreeMemorySize(), previous);
+        }
+
+        @Override
+        public boolean owns(String label) {
+            return BUCKETS.contains(label);
+        }
+    }
+
+    /**
+     * The system load average per CPU: {@code load-low} below 0.5, {@code load-high} above 1, and
+     * {@code load-medium} in between. Not available on Windows.
+     */
+    static final class Load implements ResourceLabelProvider {
+
+        private final ResourceBuckets buckets = new ResourceBuckets(
+                new double[] {0.5, 1}, new String[] {"load-low", "load-medium", "load-high"}, HYSTERESIS);
+
+        @Override
+        public String getName() {
+            return "load";
+        }
+
+        @Override
+        public Set<String> getLabels(Options options, Set<String> previous) {
+            double load = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+            if (load < 0) {
+                return Collections.emptySet();
+            }
+            return buckets.labels(load / Runtime.getRuntime().availableProcessors(), previous);
+        }
+
+        @Override
+        public boolean owns(String label) {
+            return buckets.contains(label);
+        }
+    }
+}
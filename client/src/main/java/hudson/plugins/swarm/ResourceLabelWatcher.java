@@ -0,0 +1,138 @@
+package hudson.plugins.swarm;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Publishes the labels of the {@link ResourceLabelProvider}s selected with {@code -resourceLabels}.
+ * The providers are sampled periodically, and only when their labels change, the labels of the
+ * agent on the controller are updated. The update is a diff against the labels on the controller,
+ * so that the labels given with {@code -labels} or {@code -labelsFile} are left alone.
+ */
+class ResourceLabelWatcher implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(ResourceLabelWatcher.class.getName());
+
+    private static final long INTERVAL_MILLIS =
+            Long.getLong(ResourceLabelWatcher.class.getName() + ".intervalMillis", TimeUnit.SECONDS.toMillis(60));
+
+    private final SwarmClient swarmClient;
+    private final Options options;
+    private final Iterable<ResourceLabelProvider> providers;
+    private final Map<ResourceLabelProvider, Set<String>> samples = new HashMap<>();
+    private volatile URL url;
+
+    /** The labels last published, or {@code null} if the agent has to be brought up to date. */
+    private volatile Set<String> published;
+
+    ResourceLabelWatcher(SwarmClient swarmClient, Options options, Iterable<ResourceLabelProvider> providers) {
+        this.swarmClient = swarmClient;
+        this.options = options;
+        this.providers = providers;
+    }
+
+    /**
+     * Sets the controller the agent is registered with, and publishes the labels at the next
+     * sample even if they have not changed, since the agent may have been registered again.
+     */
+    void setUrl(URL url) {
+        this.url = url;
+        reset();
+    }
+
+    /** Publishes the labels at the next sample even if they have not changed. */
+    void reset() {
+        published = null;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                update();
+            } catch (IOException | RetryException e) {
+                logger.log(Level.WARNING, "Failed to update the resource labels of agent " + swarmClient.getName(), e);
+            } catch (InterruptedException e) {
+                logger.log(Level.FINE, "ResourceLabelWatcher interrupted, stopping.", e);
+                return;
+            }
+            try {
+                Thread.sleep(INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                // The client is shutting down.
+                logger.log(Level.FINE, "ResourceLabelWatcher interrupted, stopping.", e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Samples the providers and publishes their labels if they have changed.
+     *
+     * @return whether the labels on the controller have been updated
+     */
+    synchronized boolean update() throws IOException, InterruptedException, RetryException {
+        Set<String> labels = sample();
+        Set<String> last = published;
+        if (labels.equals(last)) {
+            logger.finest("Resource labels have not changed");
+            return false;
+        }
+
+        URL url = this.url;
+        String name = swarmClient.getName();
+        HttpClient client = swarmClient.getHttpClient();
+        Set<String> current = SwarmClient.getLabels(name, client, options, url);
+        Set<String> remove = new TreeSet<>();
+        for (String label : current) {
+            if (!labels.contains(label) && isOwn(label)) {
+                remove.add(label);
+            }
+        }
+        Set<String> add = new TreeSet<>(labels);
+        add.removeAll(current);
+
+        if (!remove.isEmpty()) {
+            logger.config("Resource labels to be removed: " + remove);
+            for (String chunk : SwarmClient.chunkLabels(String.join(" ", remove))) {
+                SwarmClient.postLabelRemove(name, chunk, client, options, url);
+            }
+        }
+        if (!add.isEmpty()) {
+            logger.config("Resource labels to be added: " + add);
+            for (String chunk : SwarmClient.chunkLabels(String.join(" ", add))) {
+                SwarmClient.postLabelAppend(name, chunk, client, options, url);
+            }
+        }
+        published = labels;
+        return !remove.isEmpty() || !add.isEmpty();
+    }
+
+    private Set<String> sample() throws IOException {
+        Set<String> labels = new TreeSet<>();
+        for (ResourceLabelProvider provider : providers) {
+            Set<String> sample = provider.getLabels(options, samples.getOrDefault(provider, Collections.emptySet()));
+            samples.put(provider, sample);
+            labels.addAll(sample);
+        }
+        return labels;
+    }
+
+    private boolean isOwn(String label) {
+        for (ResourceLabelProvider provider : providers) {
+            if (provider.owns(label)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,153 @@
+package hudson.plugins.swarm;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the background work of the client: reconnecting, watching the labels file, serving metrics,
+ * and HTTP requests. The work runs on virtual threads if requested and supported by the JVM (Java
+ * 21 or newer), and on daemon platform threads otherwise.
+ *
+ * <p>Closing the supervisor interrupts all tasks and waits briefly for them to finish, so that the
+ * client can exit without tasks being killed halfway.
+ */
+class Supervisor implements Executor, AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(Supervisor.class.getName());
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private static final ThreadLocal<Boolean> SUPERVISED = ThreadLocal.withInitial(() -> false);
+
+    private final ExecutorService executor;
+
+    private final boolean virtual;
+
+    Supervisor(boolean virtualThreads) {
+        ExecutorService virtualExecutor = virtualThreads ? newVirtualThreadExecutor() : null;
+        if (virtualExecutor != null) {
+            executor = virtualExecutor;
+            virtual = true;
+            logger.fine("Running background tasks on virtual threads");
+        } else {
+            if (virtualThreads) {
+                logger.warning("Virtual threads require Java 21 or newer, using platform threads");
+            }
+            executor = Executors.newCachedThreadPool(new DaemonThreadFactory());
+            virtual = false;
+        }
+    }
+
+    boolean isVirtual() {
+        return virtual;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(() -> {
+            SUPERVISED.set(true);
+            command.run();
+        });
+    }
+
+    /** Starts a long-running background task. */
+    Future<?> start(String name, Runnable task) {
+        return executor.submit(() -> {
+            SUPERVISED.set(true);
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, name + " failed", e);
+                throw e;
+            }
+        });
+    }
+
+    /** Runs a task under supervision and waits for it to finish. */
+    void run(String name, Task task) throws InterruptedException {
+        Future<?> future = executor.submit(() -> {
+            SUPERVISED.set(true);
+            task.run();
+            return null;
+        });
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new IllegalStateException(name + " failed", cause);
+        }
+    }
+
+    /**
+     * Interrupts all tasks and waits for them to finish. Does not wait when called from a
+     * supervised task, which would otherwise wait for itself.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        if (SUPERVISED.get()) {
+            return;
+        }
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warning("Background tasks did not stop within " + SHUTDOWN_TIMEOUT_SECONDS + " seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Creates an executor starting a virtual thread per task. Looked up reflectively, since the
+     * client is built for Java 17.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "swarm-", 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class
+                    .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            return null;
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            logger.log(Level.WARNING, "Failed to create virtual threads", e);
+            return null;
+        }
+    }
+
+    @FunctionalInterface
+    interface Task {
+        void run() throws Exception;
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "swarm-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -32,8 +32,10 @@ import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
@@ -45,35 +47,78 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.Text;
+import org.xml.sax.SAXException;
 
 public class SwarmClient {
 
     private static final Logger logger = Logger.getLogger(SwarmClient.class.getName());
 
+    /** The advice to use -noCrumb is only logged once rather than for every request. */
+    private static final AtomicBoolean CRUMB_WARNING_LOGGED = new AtomicBoolean();
+
+    private static final int SSL_SESSION_CACHE_SIZE = 16;
+
+    private static final int SSL_SESSION_TIMEOUT_SECONDS = (int) TimeUnit.HOURS.toSeconds(1);
+
+    /** How often an agent disconnected for being idle asks whether builds are waiting for it. */
+    private static final long WAKE_INTERVAL_MILLIS =
+            Long.getLong(SwarmClient.class.getName() + ".wakeIntervalMillis", TimeUnit.SECONDS.toMillis(10));
+
+    private static SSLContext sslContext;
+
+    private static String sslContextFingerprints;
+
     private final Options options;
+    private final Supervisor supervisor;
+    private final Tracing tracing;
     private final String hash;
     private String secret;
     private String name;
     private HttpServer prometheusServer = null;
+    private HttpClient httpClient = null;
+    private final Map<String, CompletableFuture<Capabilities>> capabilitiesCache = new ConcurrentHashMap<>();
+    private Thread drainHook = null;
+    private volatile URL drainUrl = null;
+    private volatile boolean draining = false;
+    private volatile Tracing.Span registrationSpan = null;
+    private ExecutorAutoSizer executorAutoSizer = null;
+    private ResourceLabelWatcher resourceLabelWatcher = null;
+    private LoadReporter loadReporter = null;
+    private final JarCacheEvictor jarCacheEvictor;
 
     public SwarmClient(Options options) {
         this.options = options;
+        this.supervisor = new Supervisor(options.virtualThreads);
+        this.tracing = new Tracing(options.traceFile);
         if (!options.disableClientsUniqueId) {
-            this.hash = hash(options.fsroot);
+            this.hash = ClientIdentity.get(options);
         } else {
             this.hash = "";
         }
@@ -84,13 +129,22 @@ public class SwarmClient {
             try {
                 String labels = Files.readString(Paths.get(options.labelsFile), StandardCharsets.UTF_8);
                 options.labels.addAll(List.of(labels.trim().split("\\s+")));
-                logger.info("Labels found in file: " + labels);
-                logger.info("Effective label list: " + Arrays.toString(options.labels.toArray()));
+                logger.info(() -> "Labels found in file: " + labels);
+                logger.info(() -> "Effective label list: " + Arrays.toString(options.labels.toArray()));
             } catch (IOException e) {
                 throw new UncheckedIOException("Problem reading labels from file " + options.labelsFile, e);
             }
         }
 
+        if (options.jarCacheMaxSize > 0) {
+            jarCacheEvictor = new JarCacheEvictor(
+                    new JarCacheDirectory(JarCachePrefetcher.getCacheDir(options)),
+                    options.jarCacheMaxSize * 1024L * 1024L);
+            supervisor.start("JarCacheEvictor", jarCacheEvictor);
+        } else {
+            jarCacheEvictor = null;
+        }
+
         if (options.prometheusPort > 0) {
             startPrometheusService(options.prometheusPort);
         }
@@ -100,6 +154,10 @@ public class SwarmClient {
         return name;
     }
 
+    Supervisor getSupervisor() {
+        return supervisor;
+    }
+
     public List<String> getOptionsLabels() {
         /* Note: these labels might differ from run-time values assigned
          * to an actual agent, if someone edits it via configure page */
@@ -113,13 +171,84 @@ public class SwarmClient {
             options.url += "/";
         }
 
+        return toUrl(options.url);
+    }
+
+    /** Returns the URLs of all controllers this agent can serve, the primary one first. */
+    List<URL> getUrls() {
+        List<URL> urls = new ArrayList<>();
+        urls.add(getUrl());
+        for (String failoverUrl : options.failoverUrls) {
+            urls.add(toUrl(failoverUrl.endsWith("/") ? failoverUrl : failoverUrl + "/"));
+        }
+        return urls;
+    }
+
+    boolean hasFailoverUrls() {
+        return !options.failoverUrls.isEmpty();
+    }
+
+    /** Selects the controller to register with, probing all of them if there is more than one. */
+    URL selectController() {
+        Tracing.Span span = tracing.startSpan("swarm.selectController", registrationSpan, Tracing.KIND_INTERNAL);
+        URL url = new ControllerSelector(getHttpClient(), options).select(getUrls());
+        span.setAttribute("url.full", url).end();
+        return url;
+    }
+
+    /** Starts the trace of a registration, which the following requests are part of. */
+    void startRegistrationTrace() {
+        registrationSpan = tracing.startTrace("swarm.register").setAttribute("swarm.agent.name", options.name);
+    }
+
+    /** Ends the trace of a registration and exports its spans in the background. */
+    void endRegistrationTrace(Throwable e) {
+        Tracing.Span span = registrationSpan;
+        if (span == null) {
+            return;
+        }
+        registrationSpan = null;
+        span.setAttribute("swarm.agent.name", name).end(e);
+        if (tracing.isEnabled()) {
+            supervisor.execute(tracing::flush);
+        }
+    }
+
+    private static URL toUrl(String url) {
         try {
-            return new URL(options.url);
+            return new URL(url);
         } catch (MalformedURLException e) {
-            throw new UncheckedIOException(String.format("The URL %s is invalid", options.url), e);
+            throw new UncheckedIOException(String.format("The URL %s is invalid", url), e);
         }
     }
 
+    /**
+     * Restores the name and secret from the last registration with the given controller, so that
+     * the agent can connect without registering again.
+     *
+     * @return {@code true} if the registration has been restored
+     */
+    boolean restoreRegistration(URL url) {
+        RegistrationState state = RegistrationState.load(options, url, hash);
+        if (state == null) {
+            return false;
+        }
+        logger.info("Reconnecting as " + state.name + " without registering again");
+        this.name = state.name;
+        this.secret = state.secret;
+        return true;
+    }
+
+    /** Stores the name and secret assigned by the given controller for the next start. */
+    void saveRegistration(URL url) {
+        RegistrationState.save(options, url, hash, name, secret);
+    }
+
+    /** Forgets the stored registration, so that the next start registers again. */
+    void forgetRegistration() {
+        RegistrationState.delete(options);
+    }
+
     /**
      * This method blocks while the Swarm agent is connected.
      *
@@ -170,7 +299,10 @@ public class SwarmClient {
             }
         }
 
-        if (options.jarCache != null) {
+        if (options.sharedJarCache != null) {
+            args.add("-jar-cache");
+            args.add(options.sharedJarCache.getPath());
+        } else if (options.jarCache != null) {
             args.add("-jar-cache");
             args.add(options.jarCache.getPath());
         }
@@ -192,6 +324,9 @@ public class SwarmClient {
             }
         }
 
+        if (jarCacheEvictor != null) {
+            jarCacheEvictor.connected(System.currentTimeMillis());
+        }
         try {
             Launcher.main(args.toArray(new String[0]));
         } catch (InterruptedException | RuntimeException e) {
@@ -199,11 +334,30 @@ public class SwarmClient {
         }
     }
 
-    @SuppressWarnings("lgtm[jenkins/unsafe-calls]")
+    /**
+     * Returns the HTTP client of this client. All requests share it, so that they are multiplexed
+     * on one HTTP/2 connection to the controller where possible. Its asynchronous work is handled
+     * by the supervisor of this client.
+     */
+    synchronized HttpClient getHttpClient() {
+        if (httpClient == null) {
+            httpClient = createHttpClient(options, supervisor);
+        }
+        return httpClient;
+    }
+
     static HttpClient createHttpClient(Options clientOptions) {
+        return createHttpClient(clientOptions, null);
+    }
+
+    @SuppressWarnings("lgtm[jenkins/unsafe-calls]")
+    static HttpClient createHttpClient(Options clientOptions, Executor executor) {
         logger.fine("createHttpClient() invoked");
 
         HttpClient.Builder builder = HttpClient.newBuilder();
+        if (executor != null) {
+            builder.executor(executor);
+        }
         if (clientOptions.noHttp2) {
             builder.version(HttpClient.Version.HTTP_1_1);
         }
@@ -215,16 +369,7 @@ public class SwarmClient {
 
         if (clientOptions.disableSslVerification || !clientOptions.sslFingerprints.isEmpty()) {
             // Set the default SSL context for Remoting.
-            SSLContext sslContext;
-            try {
-                sslContext = SSLContext.getInstance("TLS");
-                String trusted = clientOptions.disableSslVerification ? "" : clientOptions.sslFingerprints;
-                sslContext.init(
-                        new KeyManager[0], new TrustManager[] {new DefaultTrustManager(trusted)}, new SecureRandom());
-            } catch (GeneralSecurityException e) {
-                logger.log(Level.SEVERE, "An error occurred", e);
-                throw new IllegalStateException(e);
-            }
+            SSLContext sslContext = getSslContext(clientOptions);
             builder.sslContext(sslContext);
             SSLContext.setDefault(sslContext);
 
@@ -236,6 +381,31 @@ public class SwarmClient {
         return builder.build();
     }
 
+    /**
+     * Returns the SSL context trusting the configured fingerprints. The context is shared by all
+     * HTTP clients and Remoting connections, so that its session cache lets reconnects resume the
+     * previous TLS session instead of doing a full handshake.
+     */
+    private static synchronized SSLContext getSslContext(Options clientOptions) {
+        String trusted = clientOptions.disableSslVerification ? "" : clientOptions.sslFingerprints;
+        if (sslContext == null || !trusted.equals(sslContextFingerprints)) {
+            try {
+                SSLContext context = SSLContext.getInstance("TLS");
+                context.init(
+                        new KeyManager[0], new TrustManager[] {new DefaultTrustManager(trusted)}, new SecureRandom());
+                SSLSessionContext sessionContext = context.getClientSessionContext();
+                sessionContext.setSessionCacheSize(SSL_SESSION_CACHE_SIZE);
+                sessionContext.setSessionTimeout(SSL_SESSION_TIMEOUT_SECONDS);
+                sslContext = context;
+                sslContextFingerprints = trusted;
+            } catch (GeneralSecurityException e) {
+                logger.log(Level.SEVERE, "An error occurred", e);
+                throw new IllegalStateException(e);
+            }
+        }
+        return sslContext;
+    }
+
     static void addAuthorizationHeader(HttpRequest.Builder builder, Options clientOptions) {
         logger.fine("addAuthorizationHeader() invoked");
 
@@ -251,7 +421,7 @@ public class SwarmClient {
     /**
      * Helper class for building POST requests with form body parameters.
      */
-    private static class FormPostRequestBuilder {
+    static class FormPostRequestBuilder {
         private final URI uri;
         private final StringBuilder formBody = new StringBuilder();
         private boolean first = true;
@@ -283,14 +453,18 @@ public class SwarmClient {
         }
     }
 
-    private static synchronized Crumb getCsrfCrumb(HttpClient client, Options options, URL url)
+    private static Crumb getCsrfCrumb(HttpClient client, Options options, URL url)
             throws IOException, InterruptedException, RetryException {
+        return await(getCsrfCrumbAsync(client, options, url));
+    }
+
+    private static CompletableFuture<Crumb> getCsrfCrumbAsync(HttpClient client, Options options, URL url) {
         if (options.noCrumb) {
-            return null;
+            return CompletableFuture.completedFuture(null);
+        }
+        if (CRUMB_WARNING_LOGGED.compareAndSet(false, true)) {
+            logger.warning("For security and efficiency, pass -noCrumb and use an API token rather than a password.");
         }
-        logger.warning("For security and efficiency, pass -noCrumb and use an API token rather than a password.");
-
-        String[] crumbResponse;
 
         URI uri = URI.create(url
                 + "crumbIssuer/api/xml?xpath="
@@ -298,41 +472,119 @@ public class SwarmClient {
         HttpRequest.Builder builder = HttpRequest.newBuilder(uri).GET();
         SwarmClient.addAuthorizationHeader(builder, options);
         HttpRequest request = builder.build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        if (response.statusCode() != HttpURLConnection.HTTP_OK) {
-            logger.log(
-                    Level.SEVERE,
-                    String.format(
-                            "Could not obtain CSRF crumb. Response code: %s%n%s",
-                            response.statusCode(), response.body()));
-            if (response.statusCode() >= 500 && response.statusCode() < 600)
-                throw new RetryException("Failed to obtain CSRF crumb due to an Internal Server "
-                        + "Error or similar condition. Response code: " + response.statusCode());
-            return null;
-        }
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).thenApply(response -> {
+            if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+                logger.log(
+                        Level.SEVERE,
+                        String.format(
+                                "Could not obtain CSRF crumb. Response code: %s%n%s",
+                                response.statusCode(), response.body()));
+                if (response.statusCode() >= 500 && response.statusCode() < 600)
+                    throw new CompletionException(new RetryException(
+                            "Failed to obtain CSRF crumb due to an Internal Server "
+                                    + "Error or similar condition. Response code: " + response.statusCode()));
+                return null;
+            }
 
-        String crumbResponseString = response.body();
-        crumbResponse = crumbResponseString.split(":");
-        if (crumbResponse.length != 2) {
-            logger.log(Level.SEVERE, "Unexpected CSRF crumb response: " + crumbResponseString);
-            return null;
-        }
+            String crumbResponseString = response.body();
+            String[] crumbResponse = crumbResponseString.split(":");
+            if (crumbResponse.length != 2) {
+                logger.log(Level.SEVERE, "Unexpected CSRF crumb response: " + crumbResponseString);
+                return null;
+            }
+
+            return new Crumb(crumbResponse[0], crumbResponse[1]);
+        });
+    }
 
-        return new Crumb(crumbResponse[0], crumbResponse[1]);
+    /** Waits for the given future, unwrapping the exceptions thrown by the HTTP pipeline. */
+    static <T> T await(CompletableFuture<T> future) throws IOException, InterruptedException, RetryException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RetryException) {
+                throw (RetryException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        }
     }
 
     void createSwarmAgent(URL url) throws IOException, InterruptedException, RetryException {
+        await(createSwarmAgentAsync(url));
+    }
+
+    /**
+     * Registers the agent with the controller. The capabilities of the controller and the CSRF
+     * crumb, if any, are fetched concurrently, and the crumb is reused for all requests. Unless the
+     * controller supports bulk labels, labels that do not fit into the registration request are
+     * sent afterwards in concurrent requests.
+     */
+    CompletableFuture<Void> createSwarmAgentAsync(URL url) {
         logger.fine("createSwarmAgent() invoked");
 
+        HttpClient client = getHttpClient();
         String labelStr = String.join(" ", options.labels);
-        String sMyLabels = labelStr;
-        if (sMyLabels.length() > 1000) {
-            sMyLabels = "";
-        }
+        Tracing.Span parent = registrationSpan;
+        CompletableFuture<Crumb> crumbFuture = Tracing.trace(
+                tracing.startSpan("swarm.crumb", parent, Tracing.KIND_CLIENT), getCsrfCrumbAsync(client, options, url));
+        CompletableFuture<Capabilities> capabilitiesFuture = Tracing.trace(
+                tracing.startSpan("swarm.capabilities", parent, Tracing.KIND_CLIENT), getCapabilitiesAsync(url));
+
+        return capabilitiesFuture.thenCompose(capabilities -> crumbFuture.thenCompose(csrfCrumb -> {
+            String sMyLabels = labelStr;
+            if (sMyLabels.length() > 1000 && !capabilities.supports(Capabilities.BULK_LABELS)) {
+                sMyLabels = "";
+            }
+            // Labels that do not fit into the registration request (avoids 413 FULL Header error)
+            List<String> labelChunks =
+                    sMyLabels.length() == 0 && labelStr.length() > 0 ? chunkLabels(labelStr) : List.of();
 
-        Properties props = new Properties();
+            HttpRequest.Builder builder = createSlaveRequest(url, sMyLabels);
+            if (csrfCrumb != null) {
+                builder.header(csrfCrumb.crumbRequestField, csrfCrumb.crumb);
+            }
+            Tracing.Span createSpan = tracing.startSpan("swarm.createSlave", parent, Tracing.KIND_CLIENT);
+            if (tracing.isEnabled()) {
+                builder.header(Tracing.TRACEPARENT, createSpan.traceparent());
+            }
+            return Tracing.trace(
+                            createSpan,
+                            client.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofInputStream())
+                                    .thenApply(this::readCredentials))
+                    .thenCompose(name -> {
+                        if (name == null || labelChunks.isEmpty()) {
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        // The crumb of the registration is valid for the appends as well, so it is
+                        // shared by all of them rather than fetched again for each one.
+                        Tracing.Span labelsSpan = tracing.startSpan("swarm.labels", parent, Tracing.KIND_CLIENT)
+                                .setAttribute("swarm.labels.requests", labelChunks.size());
+                        return Tracing.trace(
+                                labelsSpan,
+                                CompletableFuture.allOf(labelChunks.stream()
+                                        .map(chunk ->
+                                                postLabelAppendAsync(name, chunk, client, options, url, csrfCrumb))
+                                        .toArray(CompletableFuture[]::new)));
+                    });
+        }));
+    }
 
-        HttpClient client = createHttpClient(options);
+    private HttpRequest.Builder createSlaveRequest(URL url, String labels) {
         URI uri = URI.create(url + "plugin/swarm/createSlave");
 
         FormPostRequestBuilder formBuilder = new FormPostRequestBuilder(uri)
@@ -340,7 +592,7 @@ public class SwarmClient {
                 .add("executors", options.executors)
                 .add("remoteFsRoot", options.fsroot.getAbsolutePath())
                 .add("description", options.description)
-                .add("labels", sMyLabels);
+                .add("labels", labels);
         if (options.toolLocations != null) {
             for (var toolLocation : options.toolLocations.entrySet()) {
                 formBuilder.add("toolLocation", toolLocation.getKey() + ":" + toolLocation.getValue());
@@ -356,25 +608,53 @@ public class SwarmClient {
                 .add("mode", options.mode.toUpperCase(Locale.ENGLISH))
                 .add("hash", hash)
                 .add("deleteExistingClients", options.deleteExistingClients)
-                .add("keepDisconnectedClients", options.keepDisconnectedClients);
+                .add("keepDisconnectedClients", options.keepDisconnectedClients)
+                .add("profile", options.profile)
+                .add("idleTimeout", options.idleTimeout);
 
         HttpRequest.Builder builder = formBuilder.build();
         SwarmClient.addAuthorizationHeader(builder, options);
-        Crumb csrfCrumb = getCsrfCrumb(client, options, url);
-        if (csrfCrumb != null) {
-            builder.header(csrfCrumb.crumbRequestField, csrfCrumb.crumb);
-        }
-        HttpRequest request = builder.build();
+        return builder;
+    }
 
-        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
-        if (response.statusCode() != HttpURLConnection.HTTP_OK) {
-            throw new RetryException(String.format(
-                    "Failed to create a Swarm agent on Jenkins. Response code: %s%n%s",
-                    response.statusCode(), new String(response.body().readAllBytes(), StandardCharsets.UTF_8)));
-        }
+    /**
+     * Returns the capabilities of the given controller, asking it only once. If the controller
+     * cannot be asked, the basic protocol is assumed and the controller is asked again next time.
+     */
+    CompletableFuture<Capabilities> getCapabilitiesAsync(URL url) {
+        // Keyed by string, since URL.equals resolves host names.
+        String key = url.toString();
+        CompletableFuture<Capabilities> future =
+                capabilitiesCache.computeIfAbsent(key, k -> Capabilities.fetchAsync(getHttpClient(), options, url));
+        return future.exceptionally(e -> {
+            capabilitiesCache.remove(key, future);
+            logger.log(Level.FINE, "Failed to get capabilities of " + url + ", assuming basic protocol", e);
+            return Capabilities.BASIC;
+        });
+    }
+
+    Capabilities getCapabilities(URL url) throws IOException, InterruptedException, RetryException {
+        Capabilities result = await(getCapabilitiesAsync(url));
+        logger.fine("Capabilities of " + url + ": " + result);
+        return result;
+    }
 
+    /**
+     * Reads the name and secret assigned by the controller.
+     *
+     * @return the name assigned by the controller, or {@code null} if it did not assign one
+     */
+    private String readCredentials(HttpResponse<InputStream> response) {
+        Properties props = new Properties();
         try (InputStream stream = response.body()) {
+            if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+                throw new CompletionException(new RetryException(String.format(
+                        "Failed to create a Swarm agent on Jenkins. Response code: %s%n%s",
+                        response.statusCode(), new String(stream.readAllBytes(), StandardCharsets.UTF_8))));
+            }
             props.load(stream);
+        } catch (IOException e) {
+            throw new CompletionException(e);
         }
 
         String secret = props.getProperty("secret");
@@ -383,75 +663,354 @@ public class SwarmClient {
         }
 
         String name = props.getProperty("name");
-        if (name == null) {
+        if (name == null || name.trim().isEmpty()) {
             this.name = options.name;
-            return;
-        }
-        name = name.trim();
-        if (name.isEmpty()) {
-            this.name = options.name;
-            return;
+            return null;
         }
-        this.name = name;
-
-        // special handling for very long lists of labels (avoids 413 FULL Header error)
-        if (sMyLabels.length() == 0 && labelStr.length() > 0) {
-            String[] lLabels = labelStr.split("\\s+");
-            StringBuilder sb = new StringBuilder();
-            for (String s : lLabels) {
-                sb.append(s);
-                sb.append(" ");
-                if (sb.length() > 1000) {
-                    postLabelAppend(name, sb.toString(), client, options, url);
-                    sb = new StringBuilder();
-                }
+        this.name = name.trim();
+        return this.name;
+    }
+
+    /**
+     * Splits a whitespace-separated list of labels into space-terminated chunks of slightly more
+     * than 1000 characters, so that each chunk can be sent in a separate request.
+     */
+    static List<String> chunkLabels(String labels) {
+        List<String> chunks = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        for (String s : labels.split("\\s+")) {
+            sb.append(s);
+            sb.append(" ");
+            if (sb.length() > 1000) {
+                chunks.add(sb.toString());
+                sb.setLength(0);
             }
-            if (sb.length() > 0) {
-                postLabelAppend(name, sb.toString(), client, options, url);
+        }
+        if (sb.length() > 0) {
+            chunks.add(sb.toString());
+        }
+        return chunks;
+    }
+
+    /** Returns the labels of the agent on the controller. */
+    static Set<String> getLabels(String name, HttpClient client, Options options, URL url)
+            throws IOException, InterruptedException, RetryException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(
+                        url + "plugin/swarm/getSlaveLabels?name=" + URLEncoder.encode(name, StandardCharsets.UTF_8)))
+                .GET();
+        SwarmClient.addAuthorizationHeader(builder, options);
+        HttpResponse<InputStream> response = client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+            response.body().close();
+            throw new RetryException("Failed to get agent labels. Response code: " + response.statusCode());
+        }
+        Document xml;
+        try (InputStream is = response.body()) {
+            xml = XmlUtils.parse(is);
+        } catch (SAXException e) {
+            throw new RetryException("Invalid XML received from " + url, e);
+        }
+        String labels = getChildElementString(xml.getDocumentElement(), "labels");
+        Set<String> result = new HashSet<>();
+        for (String label : labels.split("\\s+")) {
+            if (!label.isEmpty()) {
+                result.add(label);
             }
         }
+        return result;
     }
 
-    static synchronized void postLabelRemove(String name, String labels, HttpClient client, Options options, URL url)
+    static void postLabelRemove(String name, String labels, HttpClient client, Options options, URL url)
             throws IOException, InterruptedException, RetryException {
-        URI uri = URI.create(url + "plugin/swarm/removeSlaveLabels");
+        await(getCsrfCrumbAsync(client, options, url)
+                .thenCompose(csrfCrumb -> postLabelsAsync(
+                        "removeSlaveLabels", "remove", name, labels, client, options, url, csrfCrumb)));
+    }
+
+    static void postLabelAppend(String name, String labels, HttpClient client, Options options, URL url)
+            throws IOException, InterruptedException, RetryException {
+        await(getCsrfCrumbAsync(client, options, url)
+                .thenCompose(csrfCrumb -> postLabelAppendAsync(name, labels, client, options, url, csrfCrumb)));
+    }
+
+    /** Replaces all labels of the agent. Requires {@link Capabilities#BULK_LABELS}. */
+    static void postLabelSet(String name, String labels, HttpClient client, Options options, URL url)
+            throws IOException, InterruptedException, RetryException {
+        await(getCsrfCrumbAsync(client, options, url)
+                .thenCompose(csrfCrumb ->
+                        postLabelsAsync("setSlaveLabels", "set", name, labels, client, options, url, csrfCrumb)));
+    }
+
+    private static CompletableFuture<Void> postLabelAppendAsync(
+            String name, String labels, HttpClient client, Options options, URL url, Crumb csrfCrumb) {
+        return postLabelsAsync("addSlaveLabels", "update", name, labels, client, options, url, csrfCrumb);
+    }
+
+    private static CompletableFuture<Void> postLabelsAsync(
+            String method,
+            String action,
+            String name,
+            String labels,
+            HttpClient client,
+            Options options,
+            URL url,
+            Crumb csrfCrumb) {
+        URI uri = URI.create(url + "plugin/swarm/" + method);
         HttpRequest.Builder builder = new FormPostRequestBuilder(uri)
                 .add("name", name)
                 .add("labels", labels)
                 .build();
         SwarmClient.addAuthorizationHeader(builder, options);
-        Crumb csrfCrumb = SwarmClient.getCsrfCrumb(client, options, url);
         if (csrfCrumb != null) {
             builder.header(csrfCrumb.crumbRequestField, csrfCrumb.crumb);
         }
         HttpRequest request = builder.build();
 
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).thenAccept(response -> {
+            if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+                throw new CompletionException(new RetryException(String.format(
+                        "Failed to %s agent labels. Response code: %s%n%s",
+                        action, response.statusCode(), response.body())));
+            }
+        });
+    }
+
+    /**
+     * Asks the controller to drain this agent when the client is terminated, and waits until the
+     * agent has been removed before letting the client exit.
+     */
+    synchronized void addDrainShutdownHook(URL url) {
+        drainUrl = url;
+        if (drainHook != null) {
+            return;
+        }
+        drainHook = new Thread(
+                () -> {
+                    draining = true;
+                    try {
+                        drain(drainUrl);
+                    } catch (IOException | RetryException e) {
+                        logger.log(Level.WARNING, "Failed to drain agent " + name, e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                },
+                "Swarm drain");
+        Runtime.getRuntime().addShutdownHook(drainHook);
+    }
+
+    /**
+     * Keeps the number of executors of the agent on the given controller in line with the
+     * resources of the container. The sizer is started once and follows the client to other
+     * controllers.
+     */
+    synchronized void startExecutorAutoSizer(URL url) {
+        if (executorAutoSizer == null) {
+            executorAutoSizer = new ExecutorAutoSizer(this, options, new CgroupResources());
+            executorAutoSizer.setUrl(url);
+            supervisor.start("ExecutorAutoSizer", executorAutoSizer);
+        } else {
+            executorAutoSizer.setUrl(url);
+        }
+    }
+
+    /**
+     * Publishes the labels of the resource label providers on the given controller. The watcher
+     * is started once and follows the client to other controllers.
+     */
+    synchronized void startResourceLabelWatcher(URL url) {
+        if (resourceLabelWatcher == null) {
+            resourceLabelWatcher = new ResourceLabelWatcher(
+                    this, options, ResourceLabelProviders.get(options.resourceLabels));
+            resourceLabelWatcher.setUrl(url);
+            supervisor.start("ResourceLabelWatcher", resourceLabelWatcher);
+        } else {
+            resourceLabelWatcher.setUrl(url);
+        }
+    }
+
+    /** Publishes the resource labels again, after the labels of the agent have been replaced. */
+    synchronized void resetResourceLabels() {
+        if (resourceLabelWatcher != null) {
+            resourceLabelWatcher.reset();
+        }
+    }
+
+    /**
+     * Reports the load of the host to the given controller. The reporter is started once and
+     * follows the client to other controllers.
+     */
+    synchronized void startLoadReporter(URL url) {
+        if (loadReporter == null) {
+            loadReporter = new LoadReporter(this, new CgroupResources());
+            loadReporter.setUrl(url);
+            supervisor.start("LoadReporter", loadReporter);
+        } else {
+            loadReporter.setUrl(url);
+        }
+    }
+
+    /**
+     * Downloads the JAR files the given controller usually sends to agents into the JAR cache, in
+     * the background while the agent connects. Requires {@link Capabilities#JAR_MANIFEST}.
+     */
+    void prefetchJars(URL url) {
+        Path cacheDir = JarCachePrefetcher.getCacheDir(options);
+        JarCachePrefetcher prefetcher = new JarCachePrefetcher(this, options, cacheDir);
+        supervisor.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                int count = prefetcher.prefetch(url);
+                if (count > 0) {
+                    logger.info(String.format(
+                            "Prefetched %d JAR files into %s in %d ms",
+                            count, cacheDir, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+                }
+            } catch (IOException | RetryException e) {
+                logger.log(Level.WARNING, "Failed to prefetch JAR files from " + url, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    /** Reports the load of the host. Requires {@link Capabilities#LOAD}. */
+    void postLoad(URL url, double cpu, double memory) throws IOException, InterruptedException, RetryException {
+        HttpClient client = getHttpClient();
+        HttpRequest.Builder builder = new FormPostRequestBuilder(URI.create(url + "plugin/swarm/reportLoad"))
+                .add("name", name)
+                .add("cpu", cpu)
+                .add("memory", memory)
+                .build();
+        SwarmClient.addAuthorizationHeader(builder, options);
+        Crumb csrfCrumb = getCsrfCrumb(client, options, url);
+        if (csrfCrumb != null) {
+            builder.header(csrfCrumb.crumbRequestField, csrfCrumb.crumb);
+        }
+        HttpResponse<String> response = client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
         if (response.statusCode() != HttpURLConnection.HTTP_OK) {
             throw new RetryException(String.format(
-                    "Failed to remove agent labels. Response code: %s%n%s", response.statusCode(), response.body()));
+                    "Failed to report load. Response code: %s%n%s", response.statusCode(), response.body()));
         }
     }
 
-    static synchronized void postLabelAppend(String name, String labels, HttpClient client, Options options, URL url)
-            throws IOException, InterruptedException, RetryException {
-        URI uri = URI.create(url + "plugin/swarm/addSlaveLabels");
-        HttpRequest.Builder builder = new FormPostRequestBuilder(uri)
+    /** Changes the number of executors of this agent. Requires {@link Capabilities#EXECUTORS}. */
+    void postExecutors(URL url, int executors) throws IOException, InterruptedException, RetryException {
+        HttpClient client = getHttpClient();
+        HttpRequest.Builder builder = new FormPostRequestBuilder(URI.create(url + "plugin/swarm/setExecutors"))
                 .add("name", name)
-                .add("labels", labels)
+                .add("executors", executors)
                 .build();
         SwarmClient.addAuthorizationHeader(builder, options);
         Crumb csrfCrumb = getCsrfCrumb(client, options, url);
         if (csrfCrumb != null) {
             builder.header(csrfCrumb.crumbRequestField, csrfCrumb.crumb);
         }
-        HttpRequest request = builder.build();
+        HttpResponse<String> response = client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+            throw new RetryException(String.format(
+                    "Failed to set the number of executors. Response code: %s%n%s",
+                    response.statusCode(), response.body()));
+        }
+    }
+
+    boolean isDraining() {
+        return draining;
+    }
 
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    /**
+     * Whether the given controller has disconnected this agent for being idle, either because of
+     * {@code -idleTimeout} or because of the profile of the agent. Requires {@link Capabilities#IDLE}.
+     * A controller that cannot be asked did not.
+     */
+    boolean isIdle(URL url) throws InterruptedException {
+        try {
+            return getCapabilities(url).supports(Capabilities.IDLE) && getWake(url) != null;
+        } catch (IOException | RetryException e) {
+            logger.log(Level.FINE, "Failed to ask " + url + " whether the agent is idle", e);
+            return false;
+        }
+    }
+
+    /**
+     * Waits until builds waiting on the given controller could run on this agent, which has been
+     * disconnected for being idle, or until the controller has forgotten about it.
+     */
+    void awaitWake(URL url) throws IOException, InterruptedException, RetryException {
+        logger.info("Agent " + name + " has been disconnected for being idle, waiting for builds that need it");
+        Boolean wake;
+        while (Boolean.FALSE.equals(wake = getWake(url))) {
+            TimeUnit.MILLISECONDS.sleep(WAKE_INTERVAL_MILLIS);
+        }
+        logger.info("Waking up agent " + name);
+    }
+
+    /**
+     * Asks whether builds are waiting for this agent.
+     *
+     * @return {@code null} if the agent has not been disconnected for being idle
+     */
+    private Boolean getWake(URL url) throws IOException, InterruptedException, RetryException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(
+                        url + "plugin/swarm/wake?name=" + URLEncoder.encode(name, StandardCharsets.UTF_8)))
+                .GET();
+        SwarmClient.addAuthorizationHeader(builder, options);
+        HttpResponse<InputStream> response =
+                getHttpClient().send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream stream = response.body()) {
+            if (response.statusCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                return null;
+            }
+            if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+                throw new RetryException(String.format(
+                        "Failed to ask whether to wake agent. Response code: %s%n%s",
+                        response.statusCode(), new String(stream.readAllBytes(), StandardCharsets.UTF_8)));
+            }
+            Properties props = new Properties();
+            props.load(stream);
+            return Boolean.parseBoolean(props.getProperty("wake"));
+        }
+    }
+
+    /**
+     * Drain this agent: the controller schedules no new builds on it and removes it once its
+     * running builds have finished. This method blocks until the agent has been removed or the
+     * drain timeout has elapsed.
+     */
+    void drain(URL url) throws IOException, InterruptedException, RetryException {
+        logger.info("Draining agent " + name);
+        HttpClient client = getHttpClient();
+        HttpRequest.Builder builder = new FormPostRequestBuilder(URI.create(url + "plugin/swarm/drain"))
+                .add("name", name)
+                .build();
+        SwarmClient.addAuthorizationHeader(builder, options);
+        Crumb csrfCrumb = getCsrfCrumb(client, options, url);
+        if (csrfCrumb != null) {
+            builder.header(csrfCrumb.crumbRequestField, csrfCrumb.crumb);
+        }
+        HttpResponse<String> response = client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
         if (response.statusCode() != HttpURLConnection.HTTP_OK) {
             throw new RetryException(String.format(
-                    "Failed to update agent labels. Response code: %s%n%s", response.statusCode(), response.body()));
+                    "Failed to drain agent. Response code: %s%n%s", response.statusCode(), response.body()));
+        }
+
+        // The agent is gone once the controller no longer knows about it.
+        HttpRequest.Builder pollBuilder = HttpRequest.newBuilder(URI.create(url
+                        + "plugin/swarm/getSlaveLabels?name="
+                        + URLEncoder.encode(name, StandardCharsets.UTF_8)))
+                .GET();
+        SwarmClient.addAuthorizationHeader(pollBuilder, options);
+        HttpRequest pollRequest = pollBuilder.build();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.drainTimeout);
+        while (System.nanoTime() < deadline) {
+            if (client.send(pollRequest, HttpResponse.BodyHandlers.discarding()).statusCode()
+                    == HttpURLConnection.HTTP_NOT_FOUND) {
+                logger.info("Agent " + name + " has been drained");
+                return;
+            }
+            TimeUnit.SECONDS.sleep(1);
         }
+        logger.warning("Timed out waiting for agent " + name + " to be drained");
     }
 
     static String getChildElementString(Element parent, String tagName) {
@@ -482,7 +1041,7 @@ public class SwarmClient {
      *     swarm clients from the same machine)
      * @return our best effort at a consistent hash
      */
-    private static String hash(File remoteFsRoot) {
+    static String hash(File remoteFsRoot) {
         logger.config("hash() invoked");
 
         StringBuilder buf = new StringBuilder();
@@ -493,17 +1052,27 @@ public class SwarmClient {
             buf.append(remoteFsRoot.getAbsolutePath()).append('\n');
         }
         try {
-            for (NetworkInterface ni : Collections.list(NetworkInterface.getNetworkInterfaces())) {
-                for (InetAddress ia : Collections.list(ni.getInetAddresses())) {
-                    if (ia instanceof Inet4Address) {
-                        buf.append(ia.getHostAddress()).append('\n');
-                    } else if (ia instanceof Inet6Address) {
+            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+            while (interfaces.hasMoreElements()) {
+                NetworkInterface ni = interfaces.nextElement();
+                Enumeration<InetAddress> addresses = ni.getInetAddresses();
+                while (addresses.hasMoreElements()) {
+                    InetAddress ia = addresses.nextElement();
+                    if (ia instanceof Inet4Address || ia instanceof Inet6Address) {
                         buf.append(ia.getHostAddress()).append('\n');
                     }
                 }
                 byte[] hardwareAddress = ni.getHardwareAddress();
                 if (hardwareAddress != null) {
-                    buf.append(Arrays.toString(hardwareAddress));
+                    // Same format as Arrays.toString, without the intermediate string.
+                    buf.append('[');
+                    for (int i = 0; i < hardwareAddress.length; i++) {
+                        if (i > 0) {
+                            buf.append(", ");
+                        }
+                        buf.append(hardwareAddress[i]);
+                    }
+                    buf.append(']');
                 }
             }
         } catch (SocketException e) {
@@ -517,19 +1086,38 @@ public class SwarmClient {
             throw new IllegalStateException(e);
         }
         byte[] digest = md.digest(buf.toString().getBytes(StandardCharsets.UTF_8));
-        return encodeHex(digest).substring(0, 8);
+        return encodeHex(digest, 4);
     }
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     private static String encodeHex(byte[] data) {
-        StringBuilder sb = new StringBuilder(data.length * 2);
-        for (byte b : data) {
-            sb.append(String.format("%02x", b));
+        return encodeHex(data, data.length);
+    }
+
+    /** Encodes the first {@code length} bytes of the given data as lowercase hexadecimal. */
+    static String encodeHex(byte[] data, int length) {
+        char[] chars = new char[length * 2];
+        for (int i = 0; i < length; i++) {
+            chars[2 * i] = HEX_DIGITS[(data[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX_DIGITS[data[i] & 0xf];
         }
-        return sb.toString();
+        return new String(chars);
     }
 
     @SuppressWarnings("lgtm[jenkins/unsafe-calls]")
     public void exitWithStatus(int status) {
+        supervisor.close();
+        synchronized (this) {
+            // Exiting on our own, so there is no agent left to drain.
+            if (drainHook != null && !draining) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(drainHook);
+                } catch (IllegalStateException e) {
+                    logger.log(Level.FINE, "Already shutting down", e);
+                }
+            }
+        }
         if (prometheusServer != null) {
             prometheusServer.stop(1);
         }
@@ -552,6 +1140,9 @@ public class SwarmClient {
         new JvmThreadMetrics().bindTo(prometheusRegistry);
         new ProcessorMetrics().bindTo(prometheusRegistry);
         new UptimeMetrics().bindTo(prometheusRegistry);
+        if (jarCacheEvictor != null) {
+            jarCacheEvictor.bindTo(prometheusRegistry);
+        }
 
         try {
             prometheusServer = HttpServer.create(new InetSocketAddress(port), 0);
@@ -564,7 +1155,8 @@ public class SwarmClient {
                 }
             });
 
-            new Thread(prometheusServer::start).start();
+            prometheusServer.setExecutor(supervisor);
+            prometheusServer.start();
         } catch (IOException e) {
             logger.severe("Failed to start Prometheus service: " + e.getMessage());
             throw new UncheckedIOException(e);
@@ -572,62 +1164,104 @@ public class SwarmClient {
         logger.info("Started Prometheus service on port " + port);
     }
 
-    private static class DefaultTrustManager implements X509TrustManager {
+    static class DefaultTrustManager implements X509TrustManager {
 
-        final List<String> allowedFingerprints = new ArrayList<>();
+        /** Upper bound for the verified certificates and accepted issuers that are remembered. */
+        private static final int MAX_CERTIFICATES = 16;
+
+        /** SHA-256 fingerprints of the allowed certificates. */
+        final Set<ByteBuffer> allowedFingerprints = new HashSet<>();
+
+        /**
+         * Whether fingerprints were configured. If none of them is valid, no certificate is trusted,
+         * rather than all of them.
+         */
+        private boolean pinned;
 
-        final List<X509Certificate> acceptedIssuers = new ArrayList<>();
+        /** Certificates that have already been checked, with the result of the check. */
+        private final Map<X509Certificate, Boolean> verified = Collections.synchronizedMap(lruMap());
+
+        private final Set<X509Certificate> acceptedIssuers = Collections.newSetFromMap(lruMap());
 
         @Override
         public void checkClientTrusted(X509Certificate[] x509Certificates, String s) {}
 
         @Override
         public void checkServerTrusted(X509Certificate[] x509Certificates, String s) throws CertificateException {
-            if (allowedFingerprints.isEmpty()) {
+            if (!pinned) {
                 return;
             }
 
-            List<X509Certificate> list = new ArrayList<>();
-
+            boolean found = false;
             for (X509Certificate cert : x509Certificates) {
-                MessageDigest md;
-                try {
-                    md = MessageDigest.getInstance("SHA-256");
-                } catch (NoSuchAlgorithmException e) {
-                    throw new IllegalStateException(e);
+                Boolean allowed = verified.get(cert);
+                if (allowed == null) {
+                    allowed = isAllowed(cert);
+                    verified.put(cert, allowed);
                 }
-                byte[] digest = md.digest(cert.getEncoded());
-                String fingerprint = encodeHex(digest);
-                logger.fine("Check fingerprint: " + fingerprint);
-                if (allowedFingerprints.contains(fingerprint)) {
-                    list.add(cert);
-                    logger.fine("Found allowed certificate: " + cert);
+                if (allowed) {
+                    found = true;
+                    synchronized (acceptedIssuers) {
+                        acceptedIssuers.add(cert);
+                    }
                 }
             }
 
-            if (list.isEmpty()) {
+            if (!found) {
                 throw new CertificateException("Fingerprint mismatch");
             }
+        }
 
-            acceptedIssuers.addAll(list);
+        private boolean isAllowed(X509Certificate cert) throws CertificateException {
+            MessageDigest md;
+            try {
+                md = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            byte[] digest = md.digest(cert.getEncoded());
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("Check fingerprint: " + encodeHex(digest));
+            }
+            boolean allowed = allowedFingerprints.contains(ByteBuffer.wrap(digest));
+            if (allowed) {
+                logger.fine("Found allowed certificate: " + cert);
+            }
+            return allowed;
         }
 
         @Override
         public X509Certificate[] getAcceptedIssuers() {
-            return acceptedIssuers.toArray(new X509Certificate[0]);
+            synchronized (acceptedIssuers) {
+                return acceptedIssuers.toArray(new X509Certificate[0]);
+            }
         }
 
         public DefaultTrustManager(String fingerprints) {
-            if (fingerprints.isEmpty()) {
+            if (fingerprints.isBlank()) {
                 return;
             }
+            pinned = true;
 
             for (String fingerprint : fingerprints.split("\\s+")) {
                 String unified = fingerprint.toLowerCase().replace(":", "");
-                logger.fine("Add allowed fingerprint: " + unified);
-                allowedFingerprints.add(unified);
+                try {
+                    allowedFingerprints.add(ByteBuffer.wrap(HexFormat.of().parseHex(unified)));
+                    logger.fine("Add allowed fingerprint: " + unified);
+                } catch (IllegalArgumentException e) {
+                    logger.warning("Ignoring invalid fingerprint: " + fingerprint);
+                }
             }
         }
+
+        private static <K, V> Map<K, V> lruMap() {
+            return new LinkedHashMap<>(MAX_CERTIFICATES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                    return size() > MAX_CERTIFICATES;
+                }
+            };
+        }
     }
 
     private static class Crumb {
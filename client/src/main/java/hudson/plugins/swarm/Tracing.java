@@ -0,0 +1,243 @@
+package hudson.plugins.swarm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records the phases of registrations as spans, so that slow joins can be broken down. The trace
+ * context is passed to the controller in the W3C {@code traceparent} header, and the plugin records
+ * its own spans as children of the client's. Spans are appended to a file in the OTLP JSON format,
+ * one export request per line, which OpenTelemetry collectors can read with their file receiver.
+ * Tracing is disabled unless a file is given. While it is disabled, all spans are a shared no-op
+ * span, so that registrations pay nothing for it.
+ */
+final class Tracing {
+
+    private static final Logger logger = Logger.getLogger(Tracing.class.getName());
+
+    static final String TRACEPARENT = "traceparent";
+
+    static final int KIND_INTERNAL = 1;
+    static final int KIND_CLIENT = 3;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final File file;
+
+    private final List<Span> finished = new ArrayList<>();
+
+    Tracing(File file) {
+        this.file = file;
+    }
+
+    boolean isEnabled() {
+        return file != null;
+    }
+
+    /** Starts a new trace. */
+    Span startTrace(String name) {
+        if (!isEnabled()) {
+            return Span.NOOP;
+        }
+        return new Span(this, name, randomHex(16), null, KIND_INTERNAL);
+    }
+
+    /** Starts a span within the trace of the given parent, or a new trace without a parent. */
+    Span startSpan(String name, Span parent, int kind) {
+        if (!isEnabled()) {
+            return Span.NOOP;
+        }
+        if (parent == null) {
+            return new Span(this, name, randomHex(16), null, kind);
+        }
+        return new Span(this, name, parent.traceId, parent.spanId, kind);
+    }
+
+    /** Ends the span once the given future completes. */
+    static <T> CompletableFuture<T> trace(Span span, CompletableFuture<T> future) {
+        return future.whenComplete((result, e) -> span.end(e));
+    }
+
+    private void finish(Span span) {
+        if (file != null) {
+            synchronized (finished) {
+                finished.add(span);
+            }
+        }
+    }
+
+    /** Appends the finished spans to the file. Called off the registration path. */
+    void flush() {
+        if (file == null) {
+            return;
+        }
+        List<Span> spans;
+        synchronized (finished) {
+            if (finished.isEmpty()) {
+                return;
+            }
+            spans = new ArrayList<>(finished);
+            finished.clear();
+        }
+        String line = toOtlpJson(spans) + System.lineSeparator();
+        synchronized (this) {
+            try {
+                Files.writeString(
+                        file.toPath(),
+                        line,
+                        StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to write spans to " + file, e);
+            }
+        }
+    }
+
+    static String toOtlpJson(List<Span> spans) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"resourceSpans\":[{\"resource\":{\"attributes\":[");
+        appendAttribute(sb, "service.name", "swarm-client");
+        sb.append("]},\"scopeSpans\":[{\"scope\":{\"name\":\"hudson.plugins.swarm\"},\"spans\":[");
+        for (int i = 0; i < spans.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            spans.get(i).appendJson(sb);
+        }
+        sb.append("]}]}]}");
+        return sb.toString();
+    }
+
+    private static void appendAttribute(StringBuilder sb, String key, String value) {
+        sb.append("{\"key\":");
+        JsonUtils.appendString(sb, key);
+        sb.append(",\"value\":{\"stringValue\":");
+        JsonUtils.appendString(sb, value);
+        sb.append("}}");
+    }
+
+    private static String randomHex(int bytes) {
+        byte[] data = new byte[bytes];
+        RANDOM.nextBytes(data);
+        return SwarmClient.encodeHex(data, bytes);
+    }
+
+    private static long epochNanos() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    static final class Span {
+
+        /** The span returned while tracing is disabled, which records nothing. */
+        static final Span NOOP = new Span();
+
+        private final Tracing tracing;
+        final String name;
+        final String traceId;
+        final String spanId;
+        final String parentSpanId;
+        private final int kind;
+        private final long start;
+        private final Map<String, String> attributes = new LinkedHashMap<>();
+        private long end;
+        private String error;
+
+        private Span(Tracing tracing, String name, String traceId, String parentSpanId, int kind) {
+            this.tracing = tracing;
+            this.name = name;
+            this.traceId = traceId;
+            this.spanId = randomHex(8);
+            this.parentSpanId = parentSpanId;
+            this.kind = kind;
+            this.start = epochNanos();
+        }
+
+        private Span() {
+            this.tracing = null;
+            this.name = "";
+            this.traceId = "0".repeat(32);
+            this.spanId = "0".repeat(16);
+            this.parentSpanId = null;
+            this.kind = KIND_INTERNAL;
+            this.start = 0;
+        }
+
+        /** Returns the value of the {@code traceparent} header that makes this span the parent. */
+        String traceparent() {
+            return "00-" + traceId + "-" + spanId + "-01";
+        }
+
+        Span setAttribute(String key, Object value) {
+            if (tracing != null) {
+                synchronized (this) {
+                    attributes.put(key, String.valueOf(value));
+                }
+            }
+            return this;
+        }
+
+        void end() {
+            end(null);
+        }
+
+        /** Ends the span, marking it as failed if an error is given. Only the first call counts. */
+        void end(Throwable e) {
+            if (tracing == null) {
+                return;
+            }
+            synchronized (this) {
+                if (end != 0) {
+                    return;
+                }
+                end = epochNanos();
+                if (e != null) {
+                    error = String.valueOf(e.getMessage());
+                }
+            }
+            tracing.finish(this);
+        }
+
+        synchronized void appendJson(StringBuilder sb) {
+            sb.append("{\"traceId\":\"").append(traceId).append("\",\"spanId\":\"").append(spanId);
+            sb.append('"');
+            if (parentSpanId != null) {
+                sb.append(",\"parentSpanId\":\"").append(parentSpanId).append('"');
+            }
+            sb.append(",\"name\":");
+            JsonUtils.appendString(sb, name);
+            sb.append(",\"kind\":").append(kind);
+            sb.append(",\"startTimeUnixNano\":\"").append(start).append('"');
+            sb.append(",\"endTimeUnixNano\":\"").append(end).append('"');
+            sb.append(",\"attributes\":[");
+            boolean first = true;
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                appendAttribute(sb, attribute.getKey(), attribute.getValue());
+            }
+            sb.append(']');
+            if (error != null) {
+                sb.append(",\"status\":{\"code\":2,\"message\":");
+                JsonUtils.appendString(sb, error);
+                sb.append('}');
+            }
+            sb.append('}');
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package hudson.plugins.swarm;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import org.junit.Test;
+
+public class AsyncHandlerTest {
+
+    @Test
+    public void recordsAreDroppedWhenQueueIsFull() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingHandler target = new RecordingHandler(release);
+        AsyncHandler handler = new AsyncHandler(target, 2, false, 0);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            handler.publish(new LogRecord(Level.INFO, "message " + i));
+        }
+        // The logging thread never waits for the stalled target.
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertTrue(handler.getDropped() > 0);
+
+        release.countDown();
+        handler.close();
+        // Reported once, after the records that were kept.
+        assertEquals(1, target.messages.stream().filter(m -> m.startsWith("Dropped ")).count());
+        assertThat(target.messages.get(target.messages.size() - 1), startsWith("Dropped "));
+    }
+
+    @Test
+    public void repeatedWarningsAreSuppressed() {
+        RecordingHandler target = new RecordingHandler(new CountDownLatch(0));
+        AsyncHandler handler = new AsyncHandler(target, 100, true, TimeUnit.HOURS.toNanos(1));
+        for (int i = 0; i < 10; i++) {
+            handler.publish(new LogRecord(Level.WARNING, "Could not obtain CSRF crumb"));
+            handler.publish(new LogRecord(Level.INFO, "Attempting to connect"));
+        }
+        handler.close();
+
+        assertEquals(1, target.messages.stream().filter(m -> m.startsWith("Could")).count());
+        assertEquals(10, target.messages.stream().filter(m -> m.startsWith("Attempting")).count());
+    }
+
+    @Test
+    public void jsonFormatter() {
+        LogRecord record = new LogRecord(Level.WARNING, "Agent \"{0}\" failed");
+        record.setLoggerName("hudson.plugins.swarm.Client");
+        record.setParameters(new Object[] {"agent-1"});
+        record.setThrown(new RetryException("try again"));
+        String json = new JsonFormatter().format(record);
+
+        assertThat(json, startsWith("{\"time\":\""));
+        assertThat(json, containsString("\"level\":\"WARNING\""));
+        assertThat(json, containsString("\"logger\":\"hudson.plugins.swarm.Client\""));
+        assertThat(json, containsString("\"message\":\"Agent \\\"agent-1\\\" failed\""));
+        assertThat(json, containsString("\"thrown\":\"hudson.plugins.swarm.RetryException: try again"));
+        assertEquals(1, json.split(System.lineSeparator()).length);
+    }
+
+    private static class RecordingHandler extends Handler {
+
+        final List<String> messages = new CopyOnWriteArrayList<>();
+
+        private final CountDownLatch release;
+
+        RecordingHandler(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            messages.add(record.getMessage());
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+}
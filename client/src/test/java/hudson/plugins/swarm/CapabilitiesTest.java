@@ -0,0 +1,81 @@
+package hudson.plugins.swarm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class CapabilitiesTest {
+
+    private HttpServer server;
+
+    @After
+    public void stopServer() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void parse() {
+        Properties props = new Properties();
+        props.setProperty("version", "2");
+        props.setProperty("features", " bulkLabels  drain ");
+        Capabilities capabilities = Capabilities.parse(props);
+        assertEquals(2, capabilities.getVersion());
+        assertTrue(capabilities.supports(Capabilities.BULK_LABELS));
+        assertTrue(capabilities.supports("drain"));
+        assertFalse(capabilities.supports(""));
+    }
+
+    @Test
+    public void capabilitiesAreFetchedOncePerController() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        URL url = givenController(requests, 200, "version=2\nfeatures=bulkLabels\n");
+
+        SwarmClient swarmClient = new SwarmClient(givenOptions());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(swarmClient.getCapabilities(url).supports(Capabilities.BULK_LABELS));
+        }
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void olderPluginsSupportTheBasicProtocol() throws Exception {
+        URL url = givenController(new AtomicInteger(), 404, "Not found");
+
+        SwarmClient swarmClient = new SwarmClient(givenOptions());
+        assertSame(Capabilities.BASIC, swarmClient.getCapabilities(url));
+    }
+
+    private static Options givenOptions() {
+        Options options = new Options();
+        options.disableClientsUniqueId = true;
+        return options;
+    }
+
+    private URL givenController(AtomicInteger requests, int status, String response) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/plugin/swarm/capabilities", exchange -> {
+            requests.incrementAndGet();
+            byte[] body = response.getBytes(StandardCharsets.ISO_8859_1);
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        return new URL("http://localhost:" + server.getAddress().getPort() + "/");
+    }
+}
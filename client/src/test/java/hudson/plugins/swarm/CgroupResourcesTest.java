@@ -0,0 +1,98 @@
+package hudson.plugins.swarm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CgroupResourcesTest {
+
+    private static final long GIB = 1024 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder =
+            TemporaryFolder.builder().assureDeletion().build();
+
+    @Test
+    public void executorsFitCpusAndMemory() {
+        assertEquals(4, CgroupResources.computeExecutors(4, 16 * GIB, 1, 0));
+        assertEquals(8, CgroupResources.computeExecutors(4, 16 * GIB, 0.5, 0));
+        assertEquals(2, CgroupResources.computeExecutors(4, 16 * GIB, 1, 8192));
+        assertEquals(1, CgroupResources.computeExecutors(0.5, 16 * GIB, 1, 0));
+        assertEquals(1, CgroupResources.computeExecutors(4, GIB, 1, 8192));
+    }
+
+    @Test
+    public void quotaLimitsCpus() throws IOException {
+        Path root = givenCgroup("/", "150000 100000", "max");
+        CgroupResources resources = new CgroupResources(root, root.resolve("cgroup"));
+        assertEquals(Math.min(1.5, Runtime.getRuntime().availableProcessors()), resources.getCpus(), 0.001);
+    }
+
+    @Test
+    public void ownCgroupIsPreferred() throws IOException {
+        Path root = givenCgroup("/build.slice/agent.scope", "max 100000", "2147483648");
+        Files.writeString(root.resolve("memory.max"), "max", StandardCharsets.US_ASCII);
+        CgroupResources resources = new CgroupResources(root, root.resolve("cgroup"));
+        assertTrue(resources.getMemory() <= 2 * GIB);
+        assertEquals(Runtime.getRuntime().availableProcessors(), resources.getCpus(), 0.001);
+    }
+
+    @Test
+    public void resizeIsPickedUp() throws IOException {
+        Path root = givenCgroup("/", "100000 100000", "max");
+        CgroupResources resources = new CgroupResources(root, root.resolve("cgroup"));
+        int before = resources.getExecutors(1, 0);
+        Files.writeString(root.resolve("cpu.max"), "max 100000", StandardCharsets.US_ASCII);
+        assertEquals(1, before);
+        assertEquals(Runtime.getRuntime().availableProcessors(), resources.getExecutors(1, 0));
+    }
+
+    @Test
+    public void missingCgroupUsesHost() throws IOException {
+        Path root = temporaryFolder.newFolder().toPath();
+        CgroupResources resources = new CgroupResources(root, root.resolve("cgroup"));
+        assertEquals(Runtime.getRuntime().availableProcessors(), resources.getCpus(), 0.001);
+    }
+
+    @Test
+    public void reclaimableCacheIsNotCountedAsUsed() throws IOException {
+        Path root = givenCgroup("/", "max 100000", "1000");
+        Files.writeString(root.resolve("memory.current"), "900", StandardCharsets.US_ASCII);
+        Files.writeString(
+                root.resolve("memory.stat"), "anon 300\nfile 600\ninactive_file 600\n", StandardCharsets.US_ASCII);
+        CgroupResources resources = new CgroupResources(root, root.resolve("cgroup"));
+        assertEquals(0.3, resources.getMemoryUtilization(), 0.001);
+
+        // Without a limit, the memory available on the host counts.
+        Files.writeString(root.resolve("memory.max"), "max", StandardCharsets.US_ASCII);
+        Path meminfo = root.resolve("meminfo");
+        Files.writeString(
+                meminfo,
+                "MemTotal:        1000 kB\nMemFree:          50 kB\nMemAvailable:     750 kB\n",
+                StandardCharsets.US_ASCII);
+        resources = new CgroupResources(root, root.resolve("cgroup"), meminfo);
+        assertEquals(0.25, resources.getMemoryUtilization(), 0.001);
+
+        // Unknown without either.
+        resources = new CgroupResources(root, root.resolve("cgroup"), root.resolve("missing"));
+        assertEquals(-1, resources.getMemoryUtilization(), 0);
+    }
+
+    /** Creates a cgroup file system with the given limits for a process in the given cgroup. */
+    private Path givenCgroup(String cgroup, String cpuMax, String memoryMax) throws IOException {
+        Path root = temporaryFolder.newFolder().toPath();
+        Path dir = root.resolve(cgroup.substring(1));
+        Files.createDirectories(dir);
+        Files.writeString(dir.resolve("cpu.max"), cpuMax, StandardCharsets.US_ASCII);
+        Files.writeString(dir.resolve("memory.max"), memoryMax, StandardCharsets.US_ASCII);
+        Files.writeString(root.resolve("cgroup"), "0::" + cgroup + "\n", StandardCharsets.US_ASCII);
+        return root;
+    }
+}
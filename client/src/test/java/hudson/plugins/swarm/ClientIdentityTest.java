@@ -0,0 +1,80 @@
+package hudson.plugins.swarm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClientIdentityTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder =
+            TemporaryFolder.builder().assureDeletion().build();
+
+    @Test
+    public void cachedIdentityIsReused() throws IOException {
+        Options options = givenOptions("machine-1");
+        String hash = ClientIdentity.get(options);
+        assertEquals(SwarmClient.hash(options.fsroot), hash);
+
+        Path file = options.fsroot.toPath().resolve(ClientIdentity.FILE_NAME);
+        assertTrue(Files.isRegularFile(file));
+
+        // Replace the cached hash to prove that it is not computed again.
+        replaceCachedHash(file, hash);
+        assertEquals("cafebabe", ClientIdentity.get(options));
+    }
+
+    @Test
+    public void cachedIdentityIsDiscardedWhenMachineIdChanges() throws IOException {
+        Options options = givenOptions("machine-1");
+        Path file = options.fsroot.toPath().resolve(ClientIdentity.FILE_NAME);
+        String hash = ClientIdentity.get(options);
+        replaceCachedHash(file, hash);
+
+        Files.writeString(options.machineIdFile.toPath(), "machine-2\n", StandardCharsets.UTF_8);
+        assertNotEquals("cafebabe", ClientIdentity.get(options));
+    }
+
+    @Test
+    public void cachedIdentityIsDiscardedOnAnotherHost() throws IOException {
+        // A cloned VM or container with the same machine ID and working directory.
+        Options options = givenOptions("machine-1");
+        Path file = options.fsroot.toPath().resolve(ClientIdentity.FILE_NAME);
+        String hash = ClientIdentity.get(options, "host-1");
+        replaceCachedHash(file, hash);
+        assertEquals("cafebabe", ClientIdentity.get(options, "host-1"));
+
+        assertNotEquals("cafebabe", ClientIdentity.get(options, "host-2"));
+    }
+
+    @Test
+    public void missingWorkDirIsNotCreated() throws IOException {
+        Options options = givenOptions("machine-1");
+        options.workDir = new File(temporaryFolder.getRoot(), "missing");
+        assertEquals(SwarmClient.hash(options.fsroot), ClientIdentity.get(options));
+        assertFalse(options.workDir.exists());
+    }
+
+    private static void replaceCachedHash(Path file, String hash) throws IOException {
+        String content = Files.readString(file, StandardCharsets.ISO_8859_1);
+        Files.writeString(file, content.replace(hash, "cafebabe"), StandardCharsets.ISO_8859_1);
+    }
+
+    private Options givenOptions(String machineId) throws IOException {
+        Options options = new Options();
+        options.fsroot = temporaryFolder.newFolder("fsroot");
+        options.machineIdFile = temporaryFolder.newFile("machine-id");
+        Files.writeString(options.machineIdFile.toPath(), machineId + "\n", StandardCharsets.UTF_8);
+        return options;
+    }
+}
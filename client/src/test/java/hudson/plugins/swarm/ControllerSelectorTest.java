@@ -0,0 +1,84 @@
+package hudson.plugins.swarm;
+
+import static org.junit.Assert.assertEquals;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+
+public class ControllerSelectorTest {
+
+    private final List<HttpServer> servers = new ArrayList<>();
+
+    @After
+    public void stopServers() {
+        for (HttpServer server : servers) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void selectsLeastLoadedReachableController() throws IOException {
+        URL busy = givenController(10, 1, "open");
+        URL idle = givenController(0, 5, "open");
+        URL unreachable = givenUnreachableController();
+
+        Options options = new Options();
+        ControllerSelector selector = new ControllerSelector(SwarmClient.createHttpClient(options), options);
+        assertEquals(idle, selector.select(List.of(unreachable, busy, idle)));
+    }
+
+    @Test
+    public void fallsBackToFirstControllerIfNoneIsReachable() throws IOException {
+        URL first = givenUnreachableController();
+        URL second = givenUnreachableController();
+
+        Options options = new Options();
+        ControllerSelector selector = new ControllerSelector(SwarmClient.createHttpClient(options), options);
+        assertEquals(first, selector.select(List.of(first, second)));
+    }
+
+    @Test
+    public void skipsClosedAndAvoidsBusyControllers() throws IOException {
+        URL closed = givenController(0, 0, "closed");
+        URL busy = givenController(0, 0, "busy");
+        URL open = givenController(100, 10, "open");
+
+        Options options = new Options();
+        ControllerSelector selector = new ControllerSelector(SwarmClient.createHttpClient(options), options);
+        assertEquals(open, selector.select(List.of(closed, busy, open)));
+        assertEquals(busy, selector.select(List.of(closed, busy)));
+    }
+
+    private URL givenController(int queueLength, int swarmNodes, String admission) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/plugin/swarm/health", exchange -> {
+            byte[] body = String.format(
+                            "queueLength=%d%nswarmNodes=%d%nadmission=%s%n", queueLength, swarmNodes, admission)
+                    .getBytes(StandardCharsets.ISO_8859_1);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        servers.add(server);
+        return new URL("http://localhost:" + server.getAddress().getPort() + "/");
+    }
+
+    private static URL givenUnreachableController() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        return new URL("http://localhost:" + port + "/");
+    }
+}
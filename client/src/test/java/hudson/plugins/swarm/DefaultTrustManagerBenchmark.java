@@ -0,0 +1,50 @@
+package hudson.plugins.swarm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks for checking the certificate of the controller against the allowed fingerprints. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DefaultTrustManagerBenchmark {
+
+    private X509Certificate[] chain;
+
+    private SwarmClient.DefaultTrustManager trustManager;
+
+    @Setup
+    public void setUp() throws IOException, GeneralSecurityException {
+        try (InputStream is = DefaultTrustManagerBenchmark.class.getResourceAsStream("benchmark-certificate.pem")) {
+            X509Certificate certificate =
+                    (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(is);
+            chain = new X509Certificate[] {certificate};
+
+            String fingerprint = HexFormat.ofDelimiter(":")
+                    .withUpperCase()
+                    .formatHex(MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded()));
+            // The matching fingerprint is the last of several allowed ones.
+            trustManager = new SwarmClient.DefaultTrustManager("00:11:22:33 44:55:66:77 88:99:AA:BB " + fingerprint);
+        }
+    }
+
+    @Benchmark
+    public SwarmClient.DefaultTrustManager checkServerTrusted() throws CertificateException {
+        trustManager.checkServerTrusted(chain, "RSA");
+        return trustManager;
+    }
+}
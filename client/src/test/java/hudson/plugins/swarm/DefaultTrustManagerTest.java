@@ -0,0 +1,61 @@
+package hudson.plugins.swarm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.HexFormat;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class DefaultTrustManagerTest {
+
+    private static X509Certificate certificate;
+
+    private static String fingerprint;
+
+    @BeforeClass
+    public static void loadCertificate() throws Exception {
+        try (InputStream is = DefaultTrustManagerTest.class.getResourceAsStream("benchmark-certificate.pem")) {
+            certificate = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(is);
+        }
+        fingerprint = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded()));
+    }
+
+    @Test
+    public void acceptsAllowedFingerprint() throws CertificateException {
+        String formatted = HexFormat.ofDelimiter(":").withUpperCase().formatHex(HexFormat.of().parseHex(fingerprint));
+        SwarmClient.DefaultTrustManager trustManager = new SwarmClient.DefaultTrustManager("not-hex " + formatted);
+        for (int i = 0; i < 100; i++) {
+            trustManager.checkServerTrusted(new X509Certificate[] {certificate}, "RSA");
+        }
+        assertArrayEquals(new X509Certificate[] {certificate}, trustManager.getAcceptedIssuers());
+    }
+
+    @Test
+    public void rejectsOtherFingerprint() {
+        SwarmClient.DefaultTrustManager trustManager = new SwarmClient.DefaultTrustManager("00".repeat(32));
+        for (int i = 0; i < 2; i++) {
+            assertThrows(
+                    CertificateException.class,
+                    () -> trustManager.checkServerTrusted(new X509Certificate[] {certificate}, "RSA"));
+        }
+        assertEquals(0, trustManager.getAcceptedIssuers().length);
+    }
+
+    @Test
+    public void rejectsAllWithOnlyInvalidFingerprints() {
+        // A typo in the only fingerprint must not disable the check.
+        SwarmClient.DefaultTrustManager trustManager =
+                new SwarmClient.DefaultTrustManager(fingerprint.substring(1) + " not-hex");
+        assertThrows(
+                CertificateException.class,
+                () -> trustManager.checkServerTrusted(new X509Certificate[] {certificate}, "RSA"));
+        assertEquals(0, trustManager.getAcceptedIssuers().length);
+    }
+}
@@ -0,0 +1,107 @@
+package hudson.plugins.swarm;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExecutorAutoSizerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder =
+            TemporaryFolder.builder().assureDeletion().build();
+
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    private HttpServer server;
+
+    @After
+    public void stopServer() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void connectedAgentIsResized() throws Exception {
+        Options options = givenOptions();
+        ExecutorAutoSizer sizer = givenSizer(options, "version=2\nfeatures=executors\n");
+
+        // The container has been shrunk to a single CPU.
+        assertTrue(sizer.resize());
+        assertEquals(1, requests.size());
+        assertThat(requests.get(0), containsString("name=agent"));
+        assertThat(requests.get(0), containsString("executors=1"));
+        assertEquals(1, options.executors);
+
+        // Nothing changed since.
+        assertFalse(sizer.resize());
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void controllerWithoutExecutorsFeatureGetsSizeOnNextRegistration() throws Exception {
+        Options options = givenOptions();
+        ExecutorAutoSizer sizer = givenSizer(options, "version=2\nfeatures=bulkLabels\n");
+
+        assertFalse(sizer.resize());
+        assertTrue(requests.isEmpty());
+        assertEquals(1, options.executors);
+    }
+
+    private static Options givenOptions() {
+        Options options = new Options();
+        options.disableClientsUniqueId = true;
+        options.noCrumb = true;
+        options.name = "agent";
+        options.autoExecutors = true;
+        options.executors = 4;
+        return options;
+    }
+
+    private ExecutorAutoSizer givenSizer(Options options, String capabilities) throws IOException {
+        // A cgroup limited to one CPU.
+        Path root = temporaryFolder.newFolder().toPath();
+        Files.writeString(root.resolve("cpu.max"), "100000 100000", StandardCharsets.US_ASCII);
+        Files.writeString(root.resolve("memory.max"), "max", StandardCharsets.US_ASCII);
+        Files.writeString(root.resolve("cgroup"), "0::/\n", StandardCharsets.US_ASCII);
+        CgroupResources resources = new CgroupResources(root, root.resolve("cgroup"));
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/plugin/swarm/capabilities", exchange -> respond(exchange, capabilities));
+        server.createContext("/plugin/swarm/setExecutors", exchange -> {
+            requests.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            respond(exchange, "");
+        });
+        server.start();
+
+        ExecutorAutoSizer sizer = new ExecutorAutoSizer(new SwarmClient(options), options, resources);
+        sizer.setUrl(new URL("http://localhost:" + server.getAddress().getPort() + "/"));
+        return sizer;
+    }
+
+    private static void respond(HttpExchange exchange, String response) throws IOException {
+        byte[] body = response.getBytes(StandardCharsets.ISO_8859_1);
+        exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+}
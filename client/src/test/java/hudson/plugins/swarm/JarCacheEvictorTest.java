@@ -0,0 +1,157 @@
+package hudson.plugins.swarm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JarCacheEvictorTest {
+
+    private static final long NOW = System.currentTimeMillis();
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private JarCacheDirectory cache;
+
+    @Before
+    public void createCache() throws IOException {
+        cache = new JarCacheDirectory(temporaryFolder.newFolder("jarCache").toPath());
+    }
+
+    @Test
+    public void leastRecentlyUsedJarsAreEvicted() throws IOException {
+        Path oldest = givenJar("10000000000000000000000000000000", 5 * HOUR);
+        Path older = givenJar("20000000000000000000000000000000", 4 * HOUR);
+        Path old = givenJar("30000000000000000000000000000000", 3 * HOUR);
+        Path recent = givenJar("40000000000000000000000000000000", 2 * HOUR);
+        Path used = givenJar("50000000000000000000000000000000", 0);
+
+        // Down to 90% of the limit.
+        JarCacheEvictor evictor = new JarCacheEvictor(cache, 3500);
+        MeterRegistry registry = new SimpleMeterRegistry();
+        evictor.bindTo(registry);
+        assertEquals(2, evictor.evict(NOW));
+        assertFalse(Files.exists(oldest));
+        assertFalse(Files.exists(older));
+        assertTrue(Files.exists(old));
+        assertTrue(Files.exists(recent));
+        assertTrue(Files.exists(used));
+
+        assertEquals(3000, registry.get("swarm.jar.cache.size").gauge().value(), 0);
+        assertEquals(3, registry.get("swarm.jar.cache.jars").gauge().value(), 0);
+        assertEquals(2, registry.get("swarm.jar.cache.evictions").functionCounter().count(), 0);
+        assertEquals(2000, registry.get("swarm.jar.cache.evicted").functionCounter().count(), 0);
+
+        // Within the limit, nothing is evicted.
+        assertEquals(0, evictor.evict(NOW));
+    }
+
+    @Test
+    public void recentlyUsedJarsAreKept() throws IOException {
+        givenJar("10000000000000000000000000000000", HOUR / 2);
+        givenJar("20000000000000000000000000000000", 0);
+
+        assertEquals(0, new JarCacheEvictor(cache, 1000).evict(NOW));
+        assertEquals(2, cache.list().size());
+    }
+
+    @Test
+    public void jarsResolvedSinceConnectingAreKept() throws IOException {
+        Path oldest = givenJar("10000000000000000000000000000000", 5 * HOUR);
+        Path older = givenJar("20000000000000000000000000000000", 4 * HOUR);
+        Path old = givenJar("30000000000000000000000000000000", 3 * HOUR);
+
+        // The channel resolved the newer JAR files when it connected, and still reads from them.
+        JarCacheEvictor evictor = new JarCacheEvictor(cache, 1500);
+        evictor.connected(NOW - 4 * HOUR - HOUR / 2);
+        assertEquals(1, evictor.evict(NOW));
+        assertFalse(Files.exists(oldest));
+        assertTrue(Files.exists(older));
+        assertTrue(Files.exists(old));
+    }
+
+    @Test
+    public void jarsBeingWrittenAreSkipped() throws Exception {
+        Path oldest = givenJar("10000000000000000000000000000000", 5 * HOUR);
+        Path older = givenJar("20000000000000000000000000000000", 4 * HOUR);
+
+        // Another client is writing to the subdirectory of the oldest JAR file.
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch evicted = new CountDownLatch(1);
+        CompletableFuture<Boolean> store = CompletableFuture.supplyAsync(() -> {
+            try {
+                return cache.store("10FFFFFFFFFFFFFFFFFFFFFFFFFFFFFF", temp -> {
+                    writing.countDown();
+                    evicted.await();
+                });
+            } catch (IOException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        writing.await();
+        try {
+            assertEquals(1, new JarCacheEvictor(cache, 1500).evict(NOW));
+        } finally {
+            evicted.countDown();
+        }
+        assertFalse(store.get());
+        assertTrue(Files.exists(oldest));
+        assertFalse(Files.exists(older));
+    }
+
+    @Test
+    public void failingDeletionsAreSkipped() throws IOException {
+        Path oldest = givenJar("10000000000000000000000000000000", 5 * HOUR);
+        Path older = givenJar("20000000000000000000000000000000", 4 * HOUR);
+        Path stale = oldest.resolveSibling("30000000000000000000000000000.jar123.tmp");
+        Files.write(stale, new byte[1000]);
+        Files.setLastModifiedTime(stale, FileTime.fromMillis(NOW - 2 * HOUR));
+
+        // The lock file of the subdirectory of the oldest JAR file cannot be opened.
+        Files.createDirectory(oldest.resolveSibling(JarCacheDirectory.LOCK_FILE));
+
+        assertEquals(1, new JarCacheEvictor(cache, 1500).evict(NOW));
+        assertTrue(Files.exists(oldest));
+        assertTrue(Files.exists(stale));
+        assertFalse(Files.exists(older));
+    }
+
+    @Test
+    public void staleTemporaryFilesAreDeleted() throws IOException {
+        Path jar = givenJar("10000000000000000000000000000000", 5 * HOUR);
+        Path stale = jar.resolveSibling("20000000000000000000000000000.jar123.tmp");
+        Files.write(stale, new byte[1000]);
+        Files.setLastModifiedTime(stale, FileTime.fromMillis(NOW - 2 * HOUR));
+        Path writing = jar.resolveSibling("30000000000000000000000000000.jar456.tmp");
+        Files.write(writing, new byte[1000]);
+
+        assertEquals(0, new JarCacheEvictor(cache, Long.MAX_VALUE).evict(NOW));
+        assertTrue(Files.exists(jar));
+        assertFalse(Files.exists(stale));
+        assertTrue(Files.exists(writing));
+    }
+
+    private Path givenJar(String checksum, long unusedMillis) throws IOException {
+        Path jar = cache.path(checksum);
+        Files.createDirectories(jar.getParent());
+        Files.write(jar, new byte[1000]);
+        Files.setLastModifiedTime(jar, FileTime.fromMillis(NOW - unusedMillis));
+        return jar;
+    }
+}
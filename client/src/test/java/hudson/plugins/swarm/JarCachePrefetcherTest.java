@@ -0,0 +1,170 @@
+package hudson.plugins.swarm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JarCachePrefetcherTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /** Served JAR files by checksum. */
+    private final Map<String, byte[]> jars = new HashMap<>();
+
+    private final AtomicInteger downloads = new AtomicInteger();
+
+    private HttpServer server;
+
+    @After
+    public void stopServer() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void pathFollowsRemotingLayout() {
+        long sum1 = 0x0123456789ABCDEFL;
+        long sum2 = 0xFEDCBA9876543210L;
+        String checksum = String.format("%016X%016X", sum1, sum2);
+        String remoting = String.format("%02X/%014X%016X.jar", (int) (sum1 >>> 56), sum1 & 0x00FFFFFFFFFFFFFFL, sum2);
+        assertEquals(Path.of("cache", remoting), new JarCacheDirectory(Path.of("cache")).path(checksum));
+    }
+
+    @Test
+    public void missingJarsAreDownloaded() throws Exception {
+        Path cacheDir = temporaryFolder.newFolder("jarCache").toPath();
+        String first = givenJar("first");
+        String second = givenJar("second");
+        String cached = givenJar("cached");
+        Path cachedPath = new JarCacheDirectory(cacheDir).path(cached);
+        Files.createDirectories(cachedPath.getParent());
+        Files.write(cachedPath, jars.get(cached));
+
+        assertEquals(2, givenPrefetcher(cacheDir).prefetch(getUrl()));
+        assertEquals(2, downloads.get());
+        assertArrayEquals(jars.get(first), Files.readAllBytes(new JarCacheDirectory(cacheDir).path(first)));
+        assertArrayEquals(jars.get(second), Files.readAllBytes(new JarCacheDirectory(cacheDir).path(second)));
+
+        // Nothing is downloaded twice.
+        assertEquals(0, givenPrefetcher(cacheDir).prefetch(getUrl()));
+        assertEquals(2, downloads.get());
+    }
+
+    @Test
+    public void sharedCacheIsFilledOnce() throws Exception {
+        Path cacheDir = temporaryFolder.newFolder("sharedJarCache").toPath();
+        for (int i = 0; i < 20; i++) {
+            givenJar("jar" + i);
+        }
+
+        // Clients starting at the same time download each JAR file once between them.
+        JarCachePrefetcher first = givenPrefetcher(cacheDir);
+        JarCachePrefetcher second = givenPrefetcher(cacheDir);
+        CompletableFuture<Integer> firstCount = CompletableFuture.supplyAsync(() -> prefetch(first));
+        CompletableFuture<Integer> secondCount = CompletableFuture.supplyAsync(() -> prefetch(second));
+        assertEquals(20, firstCount.get() + secondCount.get());
+        assertEquals(20, downloads.get());
+        for (String checksum : jars.keySet()) {
+            assertArrayEquals(jars.get(checksum), Files.readAllBytes(new JarCacheDirectory(cacheDir).path(checksum)));
+        }
+    }
+
+    @Test
+    public void corruptJarsAreDiscarded() throws Exception {
+        Path cacheDir = temporaryFolder.newFolder("jarCache").toPath();
+        String checksum = givenJar("original");
+        jars.put(checksum, "tampered".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(0, givenPrefetcher(cacheDir).prefetch(getUrl()));
+        assertFalse(Files.exists(new JarCacheDirectory(cacheDir).path(checksum)));
+        try (Stream<Path> files = Files.walk(cacheDir)) {
+            // Only the lock file is left.
+            assertTrue(files.filter(Files::isRegularFile)
+                    .allMatch(file -> file.getFileName().toString().equals(JarCacheDirectory.LOCK_FILE)));
+        }
+    }
+
+    private String givenJar(String content) throws IOException {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        Path file = temporaryFolder.newFile().toPath();
+        Files.write(file, bytes);
+        String checksum = JarCacheDirectory.checksum(file);
+        jars.put(checksum, bytes);
+        return checksum;
+    }
+
+    private int prefetch(JarCachePrefetcher prefetcher) {
+        try {
+            return prefetcher.prefetch(getUrl());
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private JarCachePrefetcher givenPrefetcher(Path cacheDir) throws IOException {
+        if (server == null) {
+            server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.createContext(
+                    "/plugin/swarm/capabilities", exchange -> respond(exchange, "version=2\nfeatures=jarManifest\n"));
+            server.createContext("/plugin/swarm/jarManifest", exchange -> {
+                StringBuilder manifest = new StringBuilder();
+                jars.forEach((checksum, bytes) -> manifest.append(checksum)
+                        .append(' ')
+                        .append(bytes.length)
+                        .append(" test.jar\n"));
+                respond(exchange, manifest.toString());
+            });
+            server.createContext("/plugin/swarm/jar", exchange -> {
+                downloads.incrementAndGet();
+                String checksum = exchange.getRequestURI().getQuery().substring("checksum=".length());
+                byte[] body = jars.get(checksum);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            });
+            server.start();
+        }
+
+        Options options = new Options();
+        options.disableClientsUniqueId = true;
+        options.noCrumb = true;
+        options.name = "agent";
+        return new JarCachePrefetcher(new SwarmClient(options), options, cacheDir);
+    }
+
+    private URL getUrl() throws IOException {
+        return new URL("http://localhost:" + server.getAddress().getPort() + "/");
+    }
+
+    private static void respond(HttpExchange exchange, String response) throws IOException {
+        byte[] body = response.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+}
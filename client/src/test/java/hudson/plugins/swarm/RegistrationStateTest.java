@@ -0,0 +1,77 @@
+package hudson.plugins.swarm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RegistrationStateTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder =
+            TemporaryFolder.builder().assureDeletion().build();
+
+    @Test
+    public void stateIsRestoredForSameOptions() throws IOException {
+        Options options = givenOptions();
+        URL url = new URL("http://localhost:8080/jenkins/");
+        RegistrationState.save(options, url, "cafebabe", "agent-cafebabe", "secret");
+
+        RegistrationState state = RegistrationState.load(options, url, "cafebabe");
+        assertNotNull(state);
+        assertEquals("agent-cafebabe", state.name);
+        assertEquals("secret", state.secret);
+    }
+
+    @Test
+    public void stateIsIgnoredWhenOptionsChange() throws IOException {
+        Options options = givenOptions();
+        URL url = new URL("http://localhost:8080/jenkins/");
+        RegistrationState.save(options, url, "cafebabe", "agent-cafebabe", "secret");
+
+        assertNull(RegistrationState.load(options, new URL("http://localhost:8081/jenkins/"), "cafebabe"));
+        assertNull(RegistrationState.load(options, url, "deadbeef"));
+        options.labels.add("docker");
+        assertNull(RegistrationState.load(options, url, "cafebabe"));
+    }
+
+    @Test
+    public void stateIsOnlyStoredForKeptClients() throws IOException {
+        Options options = givenOptions();
+        options.keepDisconnectedClients = false;
+        RegistrationState.save(options, new URL("http://localhost:8080/jenkins/"), "cafebabe", "agent", "secret");
+        assertFalse(Files.exists(options.fsroot.toPath().resolve(RegistrationState.FILE_NAME)));
+    }
+
+    @Test
+    public void stateIsOnlyReadableByOwner() throws IOException {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        Options options = givenOptions();
+        RegistrationState.save(options, new URL("http://localhost:8080/jenkins/"), "cafebabe", "agent", "secret");
+        Path file = options.fsroot.toPath().resolve(RegistrationState.FILE_NAME);
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+
+        RegistrationState.delete(options);
+        assertFalse(Files.exists(file));
+    }
+
+    private Options givenOptions() throws IOException {
+        Options options = new Options();
+        options.name = "agent";
+        options.fsroot = temporaryFolder.newFolder("fsroot");
+        options.keepDisconnectedClients = true;
+        options.labels.add("linux");
+        return options;
+    }
+}
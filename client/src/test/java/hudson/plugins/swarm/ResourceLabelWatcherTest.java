@@ -0,0 +1,208 @@
+package hudson.plugins.swarm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class ResourceLabelWatcherTest {
+
+    private final ResourceBuckets buckets = new ResourceBuckets(
+            new double[] {10, 100}, new String[] {"disk-lt-10", "disk-gt-10", "disk-gt-100"}, 0.1, true);
+
+    private final Set<String> labels = new TreeSet<>();
+
+    private final AtomicInteger updates = new AtomicInteger();
+
+    private HttpServer server;
+
+    @After
+    public void stopServer() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void bucketsHaveHysteresis() {
+        ResourceBuckets exclusive =
+                new ResourceBuckets(new double[] {10, 100}, new String[] {"low", "medium", "high"}, 0.1);
+        assertEquals("low", exclusive.label(5, Set.of()));
+        assertEquals("medium", exclusive.label(10, Set.of()));
+        assertEquals("high", exclusive.label(500, Set.of()));
+        assertEquals(Set.of("high"), exclusive.labels(500, Set.of()));
+
+        // Hovering around a threshold keeps the previous label.
+        assertEquals("low", exclusive.label(10.5, Set.of("low")));
+        assertEquals("medium", exclusive.label(9.5, Set.of("medium")));
+        assertEquals("medium", exclusive.label(105, Set.of("medium")));
+
+        // Clearly crossing it does not.
+        assertEquals("medium", exclusive.label(12, Set.of("low")));
+        assertEquals("low", exclusive.label(8, Set.of("medium")));
+        assertEquals("low", exclusive.label(1, Set.of("high")));
+    }
+
+    @Test
+    public void cumulativeBucketsHaveAllThresholdsReached() {
+        assertEquals(Set.of("disk-lt-10"), buckets.labels(5, Set.of()));
+        assertEquals(Set.of("disk-gt-10"), buckets.labels(10, Set.of()));
+        assertEquals(Set.of("disk-gt-10", "disk-gt-100"), buckets.labels(500, Set.of()));
+
+        // Hovering above a threshold delays gaining its label.
+        assertEquals(Set.of("disk-lt-10"), buckets.labels(10.5, Set.of("disk-lt-10")));
+        assertEquals(Set.of("disk-lt-10"), buckets.labels(10.5, buckets.labels(10.5, Set.of("disk-lt-10"))));
+        assertEquals(Set.of("disk-gt-10"), buckets.labels(12, Set.of("disk-lt-10")));
+        assertEquals(Set.of("disk-gt-10"), buckets.labels(105, Set.of("disk-gt-10")));
+        assertEquals(Set.of("disk-gt-10", "disk-gt-100"), buckets.labels(120, Set.of("disk-gt-10")));
+
+        // Falling below a threshold drops its label right away.
+        assertEquals(Set.of("disk-lt-10"), buckets.labels(9.5, Set.of("disk-gt-10")));
+        assertEquals(Set.of("disk-gt-10"), buckets.labels(95, Set.of("disk-gt-10", "disk-gt-100")));
+        assertEquals(Set.of("disk-lt-10"), buckets.labels(1, Set.of("disk-gt-10", "disk-gt-100")));
+    }
+
+    @Test
+    public void diskLabelsIncludeLowerThresholds() {
+        double gib = 1024 * 1024 * 1024;
+        Set<String> labels = ResourceLabelProviders.Disk.BUCKETS.labels(600 * gib, Set.of());
+        assertEquals(Set.of("disk-gt-10g", "disk-gt-50g", "disk-gt-100g", "disk-gt-500g"), labels);
+        assertTrue(labels.contains("disk-gt-100g"));
+
+        // Still matches once it has had 600 GB for a while.
+        assertTrue(ResourceLabelProviders.Disk.BUCKETS.labels(600 * gib, labels).contains("disk-gt-100g"));
+    }
+
+    @Test
+    public void unknownProviderIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> ResourceLabelProviders.get(List.of("gpu")));
+        assertEquals(3, ResourceLabelProviders.get(List.of("disk", "memory", "load")).size());
+    }
+
+    @Test
+    public void labelsArePublishedOnlyWhenTheyChange() throws Exception {
+        labels.addAll(Arrays.asList("swarm", "linux", "disk-gt-100"));
+        FakeProvider provider = new FakeProvider();
+        ResourceLabelWatcher watcher = givenWatcher(provider);
+
+        // The stale label of an earlier run is replaced.
+        provider.value = 50;
+        assertTrue(watcher.update());
+        assertEquals(Set.of("swarm", "linux", "disk-gt-10"), labels);
+        int requests = updates.get();
+
+        // Small changes within the bucket or its hysteresis do not reach the controller.
+        provider.value = 95;
+        assertFalse(watcher.update());
+        provider.value = 105;
+        assertFalse(watcher.update());
+        assertEquals(requests, updates.get());
+
+        provider.value = 5;
+        assertTrue(watcher.update());
+        assertEquals(Set.of("swarm", "linux", "disk-lt-10"), labels);
+    }
+
+    @Test
+    public void labelsArePublishedAgainAfterReset() throws Exception {
+        labels.addAll(Arrays.asList("swarm", "linux"));
+        FakeProvider provider = new FakeProvider();
+        ResourceLabelWatcher watcher = givenWatcher(provider);
+        provider.value = 50;
+        assertTrue(watcher.update());
+
+        // The labels file watcher replaced all labels.
+        labels.remove("disk-gt-10");
+        assertFalse(watcher.update());
+        watcher.reset();
+        assertTrue(watcher.update());
+        assertEquals(Set.of("swarm", "linux", "disk-gt-10"), labels);
+    }
+
+    private ResourceLabelWatcher givenWatcher(ResourceLabelProvider provider) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/plugin/swarm/getSlaveLabels", exchange -> {
+            synchronized (labels) {
+                respond(exchange, "<labelResponse><labels>" + String.join(" ", labels) + "</labels></labelResponse>");
+            }
+        });
+        server.createContext("/plugin/swarm/addSlaveLabels", exchange -> {
+            synchronized (labels) {
+                labels.addAll(readLabels(exchange));
+            }
+            updates.incrementAndGet();
+            respond(exchange, "<labelResponse/>");
+        });
+        server.createContext("/plugin/swarm/removeSlaveLabels", exchange -> {
+            synchronized (labels) {
+                labels.removeAll(readLabels(exchange));
+            }
+            updates.incrementAndGet();
+            respond(exchange, "<labelResponse/>");
+        });
+        server.start();
+
+        Options options = new Options();
+        options.disableClientsUniqueId = true;
+        options.noCrumb = true;
+        options.name = "agent";
+        ResourceLabelWatcher watcher = new ResourceLabelWatcher(new SwarmClient(options), options, List.of(provider));
+        watcher.setUrl(new URL("http://localhost:" + server.getAddress().getPort() + "/"));
+        return watcher;
+    }
+
+    private static List<String> readLabels(HttpExchange exchange) throws IOException {
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        for (String param : body.split("&")) {
+            if (param.startsWith("labels=")) {
+                return Arrays.asList(URLDecoder.decode(param.substring("labels=".length()), StandardCharsets.UTF_8)
+                        .split(" "));
+            }
+        }
+        return List.of();
+    }
+
+    private static void respond(HttpExchange exchange, String response) throws IOException {
+        byte[] body = response.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private class FakeProvider implements ResourceLabelProvider {
+
+        volatile double value;
+
+        @Override
+        public String getName() {
+            return "fake";
+        }
+
+        @Override
+        public Set<String> getLabels(Options options, Set<String> previous) {
+            return buckets.labels(value, previous);
+        }
+
+        @Override
+        public boolean owns(String label) {
+            return buckets.contains(label);
+        }
+    }
+}
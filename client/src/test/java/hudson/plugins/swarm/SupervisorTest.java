@@ -0,0 +1,43 @@
+package hudson.plugins.swarm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+public class SupervisorTest {
+
+    @Test
+    public void runPropagatesFailures() {
+        try (Supervisor supervisor = new Supervisor(false)) {
+            IllegalArgumentException e = assertThrows(
+                    IllegalArgumentException.class,
+                    () -> supervisor.run("test", () -> {
+                        throw new IllegalArgumentException("failed");
+                    }));
+            assertEquals("failed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void closeInterruptsTasks() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Supervisor supervisor = new Supervisor(true);
+        supervisor.start("test", () -> {
+            started.countDown();
+            try {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        supervisor.close();
+        assertTrue(interrupted.get());
+    }
+}
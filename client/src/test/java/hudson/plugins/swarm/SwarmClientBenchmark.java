@@ -0,0 +1,77 @@
+package hudson.plugins.swarm;
+
+import java.io.File;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks for the registration request built by {@link SwarmClient}. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SwarmClientBenchmark {
+
+    private static final URI CREATE_SLAVE = URI.create("http://localhost:8080/jenkins/plugin/swarm/createSlave");
+
+    @Param({"10", "100", "1000"})
+    public int labelCount;
+
+    private final File fsroot = new File(".");
+
+    private String labels;
+
+    private List<String> toolLocations;
+
+    @Setup
+    public void setUp() {
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < labelCount; i++) {
+            list.add("label-" + i);
+        }
+        labels = String.join(" ", list);
+
+        toolLocations = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            toolLocations.add("tool-" + i + ":/opt/tools/tool-" + i + "/bin");
+        }
+    }
+
+    @Benchmark
+    public String hash() {
+        return SwarmClient.hash(fsroot);
+    }
+
+    @Benchmark
+    public HttpRequest formPostRequest() {
+        SwarmClient.FormPostRequestBuilder builder = new SwarmClient.FormPostRequestBuilder(CREATE_SLAVE)
+                .add("name", "agent")
+                .add("executors", 4)
+                .add("remoteFsRoot", "/home/jenkins/agent")
+                .add("description", "Swarm agent with spaces & special characters")
+                .add("labels", labels);
+        for (String toolLocation : toolLocations) {
+            builder.add("toolLocation", toolLocation);
+        }
+        return builder.add("mode", "NORMAL")
+                .add("hash", "0123abcd")
+                .add("deleteExistingClients", false)
+                .add("keepDisconnectedClients", false)
+                .build()
+                .build();
+    }
+
+    @Benchmark
+    public List<String> chunkLabels() {
+        return SwarmClient.chunkLabels(labels);
+    }
+}
@@ -116,4 +116,15 @@ public class SwarmClientTest {
         String labelsFileContent = "COMPILER=GCC\t\nCOMPILER=CLANG \nARCH64=amd64  \n\nARCH32=i386\n";
         test_labelsFile(labelsFileContent, "COMPILER=GCC", "COMPILER=CLANG", "ARCH64=amd64", "ARCH32=i386");
     }
+
+    @Test
+    public void chunk_labels() {
+        assertEquals(List.of("foo bar "), SwarmClient.chunkLabels("foo bar"));
+
+        String label = "x".repeat(300);
+        List<String> chunks = SwarmClient.chunkLabels(String.join(" ", List.of(label, label, label, label, label)));
+        assertEquals(2, chunks.size());
+        assertEquals((label + " ").repeat(4), chunks.get(0));
+        assertEquals(label + " ", chunks.get(1));
+    }
 }
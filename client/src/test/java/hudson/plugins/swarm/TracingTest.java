@@ -0,0 +1,70 @@
+package hudson.plugins.swarm;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TracingTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder =
+            TemporaryFolder.builder().assureDeletion().build();
+
+    @Test
+    public void childSpansShareTheTrace() {
+        Tracing tracing = new Tracing(null);
+        Tracing.Span root = tracing.startTrace("root");
+        Tracing.Span child = tracing.startSpan("child", root, Tracing.KIND_CLIENT);
+        assertEquals(root.traceId, child.traceId);
+        assertEquals(root.spanId, child.parentSpanId);
+        assertTrue(child.traceparent().matches("00-[0-9a-f]{32}-[0-9a-f]{16}-01"));
+        assertTrue(child.traceparent().contains(child.spanId));
+    }
+
+    @Test
+    public void spansAreAppendedAsOtlpJson() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "spans.jsonl");
+        Tracing tracing = new Tracing(file);
+        Tracing.Span root = tracing.startTrace("swarm.register");
+        Tracing.trace(
+                tracing.startSpan("swarm.createSlave", root, Tracing.KIND_CLIENT),
+                CompletableFuture.failedFuture(new RetryException("\"quoted\"")));
+        root.setAttribute("swarm.agent.name", "agent").end();
+        root.end();
+        tracing.flush();
+        tracing.flush();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        String line = lines.get(0);
+        assertThat(line, containsString("\"traceId\":\"" + root.traceId + "\""));
+        assertThat(line, containsString("\"parentSpanId\":\"" + root.spanId + "\""));
+        assertThat(line, containsString("{\"key\":\"swarm.agent.name\",\"value\":{\"stringValue\":\"agent\"}}"));
+        assertThat(line, containsString("\"status\":{\"code\":2,\"message\":\"\\\"quoted\\\"\"}"));
+    }
+
+    @Test
+    public void nothingIsRecordedWhenDisabled() {
+        Tracing tracing = new Tracing(null);
+        assertFalse(tracing.isEnabled());
+        Tracing.Span root = tracing.startTrace("root").setAttribute("key", "value");
+        assertSame(root, tracing.startSpan("child", root, Tracing.KIND_CLIENT));
+        root.end();
+        tracing.flush();
+        assertThat(Tracing.toOtlpJson(List.of()), not(containsString("traceId")));
+    }
+}
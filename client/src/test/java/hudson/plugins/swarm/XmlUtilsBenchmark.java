@@ -0,0 +1,46 @@
+package hudson.plugins.swarm;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/** Benchmarks for reading the label response of the controller. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class XmlUtilsBenchmark {
+
+    @Param({"10", "1000"})
+    public int labelCount;
+
+    private byte[] response;
+
+    @Setup
+    public void setUp() {
+        List<String> labels = new ArrayList<>();
+        for (int i = 0; i < labelCount; i++) {
+            labels.add("label-" + i);
+        }
+        response = ("<labelResponse><labels>swarm " + String.join(" ", labels) + "</labels></labelResponse>")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String parseLabelResponse() throws IOException, SAXException {
+        Document xml = XmlUtils.parse(new ByteArrayInputStream(response));
+        return SwarmClient.getChildElementString(xml.getDocumentElement(), "labels");
+    }
+}
@@ -0,0 +1,44 @@
+package hudson.plugins.swarm;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks for loading and validating the options from a YAML configuration file. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class YamlConfigBenchmark {
+
+    private final byte[] yaml = ("url: http://localhost:8080/jenkins\n"
+                    + "name: agent-name-0\n"
+                    + "description: Configured from yml\n"
+                    + "executors: 3\n"
+                    + "labels:\n"
+                    + "  - label-a\n"
+                    + "  - label-b\n"
+                    + "  - label-c\n"
+                    + "toolLocations:\n"
+                    + "  tool-a: /tool/path/a\n"
+                    + "  tool-b: /tool/path/b\n"
+                    + "environmentVariables:\n"
+                    + "  ENV_1: env#1\n"
+                    + "  ENV_2: env#2\n"
+                    + "disableClientsUniqueId: true\n"
+                    + "mode: exclusive\n"
+                    + "deleteExistingClients: true\n"
+                    + "retryBackOffStrategy: linear\n"
+                    + "prometheusPort: 9100\n")
+            .getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public Options loadOptions() throws ConfigurationException {
+        return new YamlConfig().loadOptions(new ByteArrayInputStream(yaml));
+    }
+}
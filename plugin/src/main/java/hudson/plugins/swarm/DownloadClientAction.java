@@ -29,6 +29,13 @@ public class DownloadClientAction implements UnprotectedRootAction {
         return "swarm";
     }
 
+    /** Serves the controller health to clients that do not authenticate. */
+    @Restricted(NoExternalUse.class)
+    @SuppressWarnings({"lgtm[jenkins/csrf]", "lgtm[jenkins/no-permission-check]"})
+    public void doHealth(StaplerRequest2 req, StaplerResponse2 rsp) throws IOException {
+        SwarmHealth.get().write(rsp);
+    }
+
     // serve static resources
     @Restricted(NoExternalUse.class)
     @SuppressWarnings({"lgtm[jenkins/csrf]", "lgtm[jenkins/no-permission-check]"})
@@ -0,0 +1,24 @@
+package hudson.plugins.swarm;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Pool of canonical label strings shared by all Swarm agents.
+ *
+ * <p>Swarm fleets usually consist of many agents carrying the same, often long, list of labels.
+ * Rather than having every agent hold its own copy, identical label strings are mapped to a single
+ * canonical instance. The pool only holds weak references, so label strings that are no longer
+ * used by any agent can still be garbage collected.
+ */
+final class LabelSetPool {
+
+    private static final Interner<String> LABELS = Interners.newWeakInterner();
+
+    private LabelSetPool() {}
+
+    /** Returns the canonical instance of the given label string. */
+    static String intern(String labels) {
+        return LABELS.intern(labels);
+    }
+}
@@ -7,21 +7,26 @@ import hudson.Util;
 import hudson.model.Computer;
 import hudson.model.Descriptor.FormException;
 import hudson.model.Node;
+import hudson.model.Slave;
 import hudson.slaves.EnvironmentVariablesNodeProperty;
 import hudson.slaves.NodeProperty;
+import hudson.slaves.RetentionStrategy;
 import hudson.tools.ToolDescriptor;
 import hudson.tools.ToolInstallation;
 import hudson.tools.ToolLocationNodeProperty;
 import hudson.tools.ToolLocationNodeProperty.ToolLocation;
 import jakarta.servlet.http.HttpServletResponse;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.regex.Pattern;
 import jenkins.model.Jenkins;
 import jenkins.slaves.JnlpAgentReceiver;
 import org.apache.commons.lang.ArrayUtils;
@@ -37,6 +42,35 @@ import org.kohsuke.stapler.verb.POST;
  */
 public class PluginImpl extends Plugin {
 
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /**
+     * Version of the client protocol. Version 1 is the original form API without a capabilities
+     * endpoint.
+     */
+    static final int PROTOCOL_VERSION = 2;
+
+    /**
+     * Optional parts of the client protocol supported by this version of the plugin:
+     *
+     * <ul>
+     *   <li>{@code bulkLabels}: labels of any length can be sent in a single {@code createSlave}
+     *       request, and {@code setSlaveLabels} replaces all labels at once
+     *   <li>{@code drain}: agents can be drained through {@code drain}
+     *   <li>{@code executors}: the number of executors of an agent can be changed through {@code
+     *       setExecutors} while it is connected
+     *   <li>{@code health}: the controller health is available through {@code health}
+     *   <li>{@code idle}: agents can be disconnected when idle, and their clients can ask through
+     *       {@code wake} whether builds are waiting for them again
+     *   <li>{@code jarManifest}: the JAR files usually sent to agents are listed through {@code
+     *       jarManifest} and can be downloaded through {@code jar}
+     *   <li>{@code load}: agents can report the load of their host through {@code reportLoad}
+     *   <li>{@code profiles}: agents can be registered with a profile
+     * </ul>
+     */
+    static final List<String> FEATURES =
+            List.of("bulkLabels", "drain", "executors", "health", "idle", "jarManifest", "load", "profiles");
+
     private Node getNodeByName(String name, StaplerResponse2 rsp) throws IOException {
         Jenkins jenkins = Jenkins.get();
         Node node = jenkins.getNode(name);
@@ -83,20 +117,54 @@ public class PluginImpl extends Plugin {
 
         node.checkPermission(Computer.CONFIGURE);
 
-        LinkedHashSet<String> currentLabels = stringToSet(node.getLabelString());
-        LinkedHashSet<String> labelsToAdd = stringToSet(labels);
-        currentLabels.addAll(labelsToAdd);
-        node.setLabelString(setToString(currentLabels));
+        // Clients update labels concurrently, so guard the read-modify-write against lost updates.
+        synchronized (node) {
+            String currentLabels = node.getLabelString();
+            String newLabels = addLabels(currentLabels, labels);
+            if (!newLabels.equals(currentLabels)) {
+                node.setLabelString(newLabels);
+            }
+        }
 
         normalResponse(req, rsp, node.getLabelString());
     }
 
-    private static String setToString(Set<String> labels) {
-        return String.join(" ", labels);
+    /**
+     * Adds the given labels to a label string. Returns the original label string if all labels were
+     * already present, and a pooled instance otherwise.
+     */
+    static String addLabels(String currentLabels, String labels) {
+        LinkedHashSet<String> result = stringToSet(currentLabels);
+        if (!result.addAll(stringToSet(labels))) {
+            return currentLabels;
+        }
+        return setToString(result);
+    }
+
+    /**
+     * Removes the given labels from a label string. Returns the original label string if none of
+     * the labels were present, and a pooled instance otherwise.
+     */
+    static String removeLabels(String currentLabels, String labels) {
+        LinkedHashSet<String> result = stringToSet(currentLabels);
+        if (!result.removeAll(stringToSet(labels))) {
+            return currentLabels;
+        }
+        return setToString(result);
+    }
+
+    static String setToString(Set<String> labels) {
+        return LabelSetPool.intern(String.join(" ", labels));
     }
 
-    private static LinkedHashSet<String> stringToSet(String labels) {
-        return new LinkedHashSet<>(List.of(labels.split("\\s+")));
+    static LinkedHashSet<String> stringToSet(String labels) {
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        for (String label : WHITESPACE.split(labels)) {
+            if (!label.isEmpty()) {
+                result.add(label);
+            }
+        }
+        return result;
     }
 
     /** Remove labels from an agent. */
@@ -111,14 +179,252 @@ public class PluginImpl extends Plugin {
 
         node.checkPermission(Computer.CONFIGURE);
 
-        LinkedHashSet<String> currentLabels = stringToSet(node.getLabelString());
-        LinkedHashSet<String> labelsToRemove = stringToSet(labels);
-        currentLabels.removeAll(labelsToRemove);
-        node.setLabelString(setToString(currentLabels));
+        // Clients update labels concurrently, so guard the read-modify-write against lost updates.
+        synchronized (node) {
+            String currentLabels = node.getLabelString();
+            String newLabels = removeLabels(currentLabels, labels);
+            if (!newLabels.equals(currentLabels)) {
+                node.setLabelString(newLabels);
+            }
+        }
+
+        normalResponse(req, rsp, node.getLabelString());
+    }
+
+    /**
+     * Replace the labels of an agent in a single request, keeping the {@code swarm} label. Part of
+     * the {@code bulkLabels} feature.
+     */
+    @POST
+    public void doSetSlaveLabels(
+            StaplerRequest2 req, StaplerResponse2 rsp, @QueryParameter String name, @QueryParameter String labels)
+            throws IOException {
+        Node node = getNodeByName(name, rsp);
+        if (node == null) {
+            return;
+        }
+
+        node.checkPermission(Computer.CONFIGURE);
+
+        synchronized (node) {
+            String currentLabels = node.getLabelString();
+            String newLabels = setLabels(labels);
+            if (!newLabels.equals(currentLabels)) {
+                node.setLabelString(newLabels);
+            }
+        }
 
         normalResponse(req, rsp, node.getLabelString());
     }
 
+    /** Returns the pooled label string of a Swarm agent with the given labels. */
+    static String setLabels(String labels) {
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        result.add("swarm");
+        result.addAll(stringToSet(Util.fixNull(labels)));
+        return setToString(result);
+    }
+
+    /**
+     * Change the number of executors of a connected Swarm agent, for clients that size their
+     * executors to the resources of their container. Part of the {@code executors} feature.
+     */
+    @POST
+    public void doSetExecutors(
+            StaplerRequest2 req, StaplerResponse2 rsp, @QueryParameter String name, @QueryParameter int executors)
+            throws IOException {
+        Node node = getNodeByName(name, rsp);
+        if (node == null) {
+            return;
+        }
+        if (!(node instanceof SwarmSlave)) {
+            rsp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            rsp.setContentType("text/plain; UTF-8");
+            rsp.getWriter().printf("Agent \"%s\" is not a Swarm agent.%n", name);
+            return;
+        }
+        if (executors < 1) {
+            rsp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            rsp.setContentType("text/plain; UTF-8");
+            rsp.getWriter().printf("Invalid number of executors: %d%n", executors);
+            return;
+        }
+
+        node.checkPermission(Computer.CONFIGURE);
+
+        SwarmSlave agent = (SwarmSlave) node;
+        synchronized (agent) {
+            if (agent.getNumExecutors() != executors) {
+                agent.setNumExecutors(executors);
+                // Updating the node makes the computer add or remove executors; busy executors
+                // finish their builds before they are removed.
+                Jenkins.get().updateNode(agent);
+            }
+        }
+    }
+
+    /**
+     * Record the CPU and memory utilization of the host of a Swarm agent, between 0 and 1, for
+     * {@link SwarmLoadBalancer}. Part of the {@code load} feature.
+     */
+    @POST
+    public void doReportLoad(
+            StaplerRequest2 req,
+            StaplerResponse2 rsp,
+            @QueryParameter String name,
+            @QueryParameter double cpu,
+            @QueryParameter double memory)
+            throws IOException {
+        Node node = getNodeByName(name, rsp);
+        if (node == null) {
+            return;
+        }
+        if (!(node instanceof SwarmSlave)) {
+            rsp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            rsp.setContentType("text/plain; UTF-8");
+            rsp.getWriter().printf("Agent \"%s\" is not a Swarm agent.%n", name);
+            return;
+        }
+
+        node.checkPermission(Computer.CONFIGURE);
+
+        SwarmLoadNodeProperty property;
+        synchronized (node) {
+            property = node.getNodeProperty(SwarmLoadNodeProperty.class);
+            if (property == null) {
+                property = new SwarmLoadNodeProperty();
+                node.getNodeProperties().add(property);
+            }
+        }
+        Computer computer = node.toComputer();
+        // Clients report negative values for what they cannot measure, which stay unknown.
+        property.setLoad(new SwarmLoad(
+                cpu < 0 ? SwarmLoad.UNKNOWN : Math.min(cpu, 1),
+                memory < 0 ? SwarmLoad.UNKNOWN : Math.min(memory, 1),
+                computer != null ? computer.countBusy() : 0,
+                System.nanoTime()));
+    }
+
+    /**
+     * Report the protocol version and the optional features of the client protocol supported by
+     * this version of the plugin. Clients ask once per controller and fall back to the basic
+     * protocol for anything not listed, or if this endpoint does not exist.
+     */
+    @SuppressWarnings({"lgtm[jenkins/csrf]", "lgtm[jenkins/no-permission-check]"})
+    public void doCapabilities(StaplerRequest2 req, StaplerResponse2 rsp) throws IOException {
+        rsp.setContentType("text/plain; charset=iso-8859-1");
+        try (OutputStream outputStream = rsp.getOutputStream()) {
+            Properties props = new Properties();
+            props.put("version", Integer.toString(PROTOCOL_VERSION));
+            props.put("features", String.join(" ", FEATURES));
+            props.store(outputStream, "");
+        }
+    }
+
+    /**
+     * List the JAR files Remoting usually sends to Swarm agents, so that clients can download them
+     * into their JAR cache before the first build. Part of the {@code jarManifest} feature.
+     */
+    @SuppressWarnings("lgtm[jenkins/csrf]")
+    public void doJarManifest(StaplerRequest2 req, StaplerResponse2 rsp) throws IOException {
+        Jenkins.get().checkPermission(Computer.CONNECT);
+
+        rsp.setContentType("text/plain; UTF-8");
+        try (Writer writer = rsp.getWriter()) {
+            SwarmJarManifest.get().write(writer);
+        }
+    }
+
+    /** Download a JAR file listed by {@code jarManifest}. Part of the {@code jarManifest} feature. */
+    @SuppressWarnings("lgtm[jenkins/csrf]")
+    public void doJar(StaplerRequest2 req, StaplerResponse2 rsp, @QueryParameter String checksum)
+            throws IOException {
+        Jenkins.get().checkPermission(Computer.CONNECT);
+
+        File jar = checksum != null ? SwarmJarManifest.get().getJar(checksum) : null;
+        if (jar == null) {
+            rsp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            rsp.setContentType("text/plain; UTF-8");
+            rsp.getWriter().printf("JAR file \"%s\" is not in the manifest.%n", checksum);
+            return;
+        }
+
+        rsp.setContentType("application/java-archive");
+        rsp.setContentLengthLong(jar.length());
+        try (OutputStream outputStream = rsp.getOutputStream()) {
+            Files.copy(jar.toPath(), outputStream);
+        }
+    }
+
+    /**
+     * Report how busy this controller is, so that clients that can connect to several controllers
+     * can pick the least loaded one. Served from a periodic snapshot; reveals no more than the
+     * number of queued items and Swarm agents, whether new agents are welcome, and the supported
+     * protocol features.
+     */
+    @SuppressWarnings({"lgtm[jenkins/csrf]", "lgtm[jenkins/no-permission-check]"})
+    public void doHealth(StaplerRequest2 req, StaplerResponse2 rsp) throws IOException {
+        SwarmHealth.get().write(rsp);
+    }
+
+    /**
+     * Drain Swarm agents. The agents named by the {@code name} parameters accept no new builds and
+     * are removed once their running builds have finished.
+     */
+    @POST
+    public void doDrain(StaplerRequest2 req, StaplerResponse2 rsp) throws IOException {
+        String[] names = req.getParameterValues("name");
+        if (names == null || names.length == 0) {
+            rsp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            rsp.setContentType("text/plain; UTF-8");
+            rsp.getWriter().println("No agent to drain.");
+            return;
+        }
+
+        List<Node> nodes = new ArrayList<>();
+        for (String name : names) {
+            Node node = getNodeByName(name, rsp);
+            if (node == null) {
+                return;
+            }
+            if (!(node instanceof SwarmSlave)) {
+                rsp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                rsp.setContentType("text/plain; UTF-8");
+                rsp.getWriter().printf("Agent \"%s\" is not a Swarm agent.%n", name);
+                return;
+            }
+            node.checkPermission(Computer.CONFIGURE);
+            nodes.add(node);
+        }
+
+        SwarmDrain.get().drain(nodes);
+    }
+
+    /**
+     * Report whether builds are waiting for a Swarm agent that has been disconnected for being idle,
+     * so that its client can register again. Responds with 404 if the agent has not been
+     * disconnected for being idle. Part of the {@code idle} feature.
+     */
+    @SuppressWarnings("lgtm[jenkins/csrf]")
+    public void doWake(StaplerRequest2 req, StaplerResponse2 rsp, @QueryParameter String name) throws IOException {
+        Jenkins.get().checkPermission(Computer.CONNECT);
+
+        SwarmIdle idle = SwarmIdle.get();
+        if (name == null || !idle.isSleeping(name)) {
+            rsp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            rsp.setContentType("text/plain; UTF-8");
+            rsp.getWriter().printf("Agent \"%s\" has not been disconnected for being idle.%n", name);
+            return;
+        }
+
+        rsp.setContentType("text/plain; charset=iso-8859-1");
+        try (OutputStream outputStream = rsp.getOutputStream()) {
+            Properties props = new Properties();
+            props.put("wake", Boolean.toString(idle.isWanted(name)));
+            props.store(outputStream, "");
+        }
+    }
+
     /** Add a new Swarm agent. */
     @POST
     public void doCreateSlave(
@@ -132,26 +438,61 @@ public class PluginImpl extends Plugin {
             @QueryParameter Node.Mode mode,
             @QueryParameter(fixEmpty = true) String hash,
             @QueryParameter boolean deleteExistingClients,
-            @QueryParameter boolean keepDisconnectedClients)
+            @QueryParameter boolean keepDisconnectedClients,
+            @QueryParameter(fixEmpty = true) String profile,
+            @QueryParameter int idleTimeout)
             throws IOException {
         Jenkins jenkins = Jenkins.get();
 
         jenkins.checkPermission(Computer.CREATE);
         jenkins.checkPermission(Computer.CONNECT);
 
+        SwarmProfile swarmProfile = null;
+        if (profile != null) {
+            swarmProfile = SwarmProfiles.get().getProfile(profile);
+            if (swarmProfile == null) {
+                rsp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                rsp.setContentType("text/plain; UTF-8");
+                rsp.getWriter().printf("Profile \"%s\" does not exist.%n", profile);
+                return;
+            }
+            if (swarmProfile.getLabels() != null) {
+                labels = swarmProfile.getLabels() + " " + Util.fixNull(labels);
+            }
+            if (swarmProfile.getNumExecutors() > 0) {
+                executors = swarmProfile.getNumExecutors();
+            }
+            if (swarmProfile.getIdleTimeout() > 0) {
+                idleTimeout = swarmProfile.getIdleTimeout();
+            }
+        }
+        RetentionStrategy<?> retentionStrategy =
+                idleTimeout > 0 ? new SwarmIdleRetentionStrategy(idleTimeout) : RetentionStrategy.NOOP;
+
         List<NodeProperty<Node>> nodeProperties = new ArrayList<>();
 
         String[] toolLocations = req.getParameterValues("toolLocation");
         if (!ArrayUtils.isEmpty(toolLocations)) {
+            if (swarmProfile != null) {
+                toolLocations = (String[]) ArrayUtils.addAll(swarmProfile.getToolLocationEntries(), toolLocations);
+            }
             List<ToolLocation> parsedToolLocations = parseToolLocations(toolLocations);
             nodeProperties.add(new ToolLocationNodeProperty(parsedToolLocations));
+        } else if (swarmProfile != null && swarmProfile.getToolLocationNodeProperty() != null) {
+            nodeProperties.add(swarmProfile.getToolLocationNodeProperty());
         }
 
         String[] environmentVariables = req.getParameterValues("environmentVariable");
         if (!ArrayUtils.isEmpty(environmentVariables)) {
+            if (swarmProfile != null) {
+                environmentVariables = (String[])
+                        ArrayUtils.addAll(swarmProfile.getEnvironmentVariableEntries(), environmentVariables);
+            }
             List<EnvironmentVariablesNodeProperty.Entry> parsedEnvironmentVariables =
                     parseEnvironmentVariables(environmentVariables);
             nodeProperties.add(new EnvironmentVariablesNodeProperty(parsedEnvironmentVariables));
+        } else if (swarmProfile != null && swarmProfile.getEnvironmentVariablesNodeProperty() != null) {
+            nodeProperties.add(swarmProfile.getEnvironmentVariablesNodeProperty());
         }
 
         // We use the existance of the node property itself as the boolean flag
@@ -159,6 +500,28 @@ public class PluginImpl extends Plugin {
             nodeProperties.add(new KeepSwarmClientNodeProperty());
         }
 
+        // Jobs are sent back to the agent with their workspaces after it registers again.
+        nodeProperties.add(new SwarmAffinityNodeProperty(SwarmAffinity.identity(name, hash, remoteFsRoot)));
+
+        String nodeDescription = "Swarm agent from " + req.getRemoteHost();
+        if (description != null) {
+            nodeDescription += ": " + description;
+        }
+        String labelString = LabelSetPool.intern(("swarm " + Util.fixNull(labels)).trim());
+
+        if (swarmProfile != null) {
+            SwarmStandbyPool.Standby standby = SwarmStandbyPool.get().claim(swarmProfile, remoteFsRoot);
+            SwarmTracing.Span span = SwarmTracing.startSpan(req, "swarm.activateStandby");
+            boolean activated = standby != null
+                    && activate(standby, nodeDescription, mode, labelString, nodeProperties, retentionStrategy);
+            span.setAttribute("swarm.standby.activated", activated).end();
+            if (activated) {
+                writeCredentials(rsp, standby.getName(), standby.getSecret());
+                SwarmTracing.get().awaitOnline(req, standby.getName());
+                return;
+            }
+        }
+
         if (hash == null && jenkins.getNode(name) != null && !deleteExistingClients) {
             /*
              * This is a legacy client. They won't be able to pick up the new name, so throw them
@@ -187,35 +550,80 @@ public class PluginImpl extends Plugin {
             return;
         }
 
+        // The agent registers again after having been disconnected for being idle.
+        SwarmIdle.get().forget(name);
+
         try {
-            String nodeDescription = "Swarm agent from " + req.getRemoteHost();
-            if (description != null) {
-                nodeDescription += ": " + description;
-            }
             var agent = ExtensionList.lookupFirst(SwarmSlaveFactory.class)
-                    .createSlave(
-                            name,
-                            nodeDescription,
-                            remoteFsRoot,
-                            executors,
-                            mode,
-                            "swarm " + Util.fixNull(labels),
-                            nodeProperties);
+                    .createSlave(name, nodeDescription, remoteFsRoot, executors, mode, labelString, nodeProperties);
+            if (idleTimeout > 0) {
+                agent.setRetentionStrategy(retentionStrategy);
+            }
+            SwarmTracing.Span span = SwarmTracing.startSpan(req, "swarm.addNode");
             jenkins.addNode(agent);
+            span.end();
 
-            rsp.setContentType("text/plain; charset=iso-8859-1");
-            try (OutputStream outputStream = rsp.getOutputStream()) {
-                Properties props = new Properties();
-                props.put("name", name);
-                props.put("secret", JnlpAgentReceiver.SLAVE_SECRET.mac(name));
-                props.store(outputStream, "");
-            }
+            writeCredentials(rsp, name, JnlpAgentReceiver.SLAVE_SECRET.mac(name));
+            SwarmTracing.get().awaitOnline(req, name);
         } catch (FormException e) {
             Functions.printStackTrace(e, System.err);
         }
     }
 
-    private static List<ToolLocation> parseToolLocations(String[] toolLocations) {
+    /**
+     * Applies the settings requested by the client to a claimed standby agent. The node is only
+     * updated if the request differs from the settings of its profile.
+     *
+     * @return whether the standby agent can be used
+     */
+    private static boolean activate(
+            SwarmStandbyPool.Standby standby,
+            String nodeDescription,
+            Node.Mode mode,
+            String labelString,
+            List<NodeProperty<Node>> nodeProperties,
+            RetentionStrategy<?> retentionStrategy)
+            throws IOException {
+        Slave agent = standby.getNode();
+        if (agent == null) {
+            return false;
+        }
+        agent.setNodeDescription(nodeDescription);
+
+        boolean changed = false;
+        if (mode != null && mode != agent.getMode()) {
+            agent.setMode(mode);
+            changed = true;
+        }
+        if (!labelString.equals(agent.getLabelString())) {
+            agent.setLabelString(labelString);
+            changed = true;
+        }
+        if (!nodeProperties.equals(new ArrayList<>(agent.getNodeProperties()))) {
+            agent.setNodeProperties(nodeProperties);
+            changed = true;
+        }
+        if (!retentionStrategy.equals(agent.getRetentionStrategy())) {
+            agent.setRetentionStrategy(retentionStrategy);
+            changed = true;
+        }
+        if (changed) {
+            Jenkins.get().updateNode(agent);
+        }
+        return true;
+    }
+
+    private static void writeCredentials(StaplerResponse2 rsp, String name, String secret) throws IOException {
+        rsp.setContentType("text/plain; charset=iso-8859-1");
+        try (OutputStream outputStream = rsp.getOutputStream()) {
+            Properties props = new Properties();
+            props.put("name", name);
+            props.put("secret", secret);
+            props.store(outputStream, "");
+        }
+    }
+
+    static List<ToolLocation> parseToolLocations(String[] toolLocations) {
         List<ToolLocationNodeProperty.ToolLocation> result = new ArrayList<>();
 
         for (String toolLocKeyValue : toolLocations) {
@@ -249,7 +657,7 @@ public class PluginImpl extends Plugin {
         return result;
     }
 
-    private static List<EnvironmentVariablesNodeProperty.Entry> parseEnvironmentVariables(
+    static List<EnvironmentVariablesNodeProperty.Entry> parseEnvironmentVariables(
             String[] environmentVariables) {
         List<EnvironmentVariablesNodeProperty.Entry> result = new ArrayList<>();
 
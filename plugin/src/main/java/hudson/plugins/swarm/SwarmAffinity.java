@@ -0,0 +1,70 @@
+package hudson.plugins.swarm;
+
+import hudson.model.Item;
+import hudson.model.Node;
+import hudson.model.Queue;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import jenkins.util.SystemProperties;
+
+/**
+ * Remembers on which Swarm agent each job last ran, so that {@link SwarmLoadBalancer} can send it
+ * back there while the agent is free, where its workspace and SCM caches are still warm. Agents are
+ * remembered by their {@link SwarmAffinityNodeProperty identity} rather than by name, since a client
+ * that registers again gets a new node, and often a new name. Only the most recently run jobs are
+ * remembered, and nothing survives a restart of the controller.
+ */
+final class SwarmAffinity {
+
+    private static final int MAX_JOBS =
+            SystemProperties.getInteger(SwarmAffinity.class.getName() + ".maxJobs", 10000);
+
+    /** Agent identities by job, least recently run first. */
+    private static final Map<String, String> AGENTS = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_JOBS;
+        }
+    };
+
+    private SwarmAffinity() {}
+
+    /**
+     * Returns the identity of an agent that should be recognized when its client registers again:
+     * the client's unique ID, or the requested name if unique IDs are disabled, and the remote root
+     * directory, which holds the workspaces.
+     */
+    static String identity(String name, String hash, String remoteFsRoot) {
+        return (hash != null ? hash : name) + "@" + remoteFsRoot;
+    }
+
+    /** Returns the identity of a Swarm agent, or {@code null} for other nodes. */
+    static String identity(Node node) {
+        SwarmAffinityNodeProperty property =
+                node instanceof SwarmSlave ? node.getNodeProperty(SwarmAffinityNodeProperty.class) : null;
+        return property != null ? property.getIdentity() : null;
+    }
+
+    /** Records that the task is about to run on the node. */
+    static void record(Queue.Task task, Node node) {
+        String identity = identity(node);
+        if (identity != null) {
+            synchronized (AGENTS) {
+                AGENTS.put(key(task), identity);
+            }
+        }
+    }
+
+    /** Returns the identity of the agent the job of the task last ran on, or {@code null}. */
+    static String getPreferred(Queue.Task task) {
+        synchronized (AGENTS) {
+            return AGENTS.get(key(task));
+        }
+    }
+
+    /** Builds of the same job share the workspace, so they are remembered by job. */
+    private static String key(Queue.Task task) {
+        Queue.Task owner = task.getOwnerTask();
+        return owner instanceof Item ? ((Item) owner).getFullName() : owner.getFullDisplayName();
+    }
+}
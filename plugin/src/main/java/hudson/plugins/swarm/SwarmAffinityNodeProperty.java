@@ -0,0 +1,41 @@
+package hudson.plugins.swarm;
+
+import hudson.model.Node;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+import java.util.Objects;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * {@link NodeProperty} that holds the identity of a Swarm agent, which stays the same when its
+ * client registers again. See {@link SwarmAffinity}.
+ */
+public class SwarmAffinityNodeProperty extends NodeProperty<Node> {
+
+    private final String identity;
+
+    @DataBoundConstructor
+    public SwarmAffinityNodeProperty(String identity) {
+        this.identity = identity;
+    }
+
+    public String getIdentity() {
+        return identity;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof SwarmAffinityNodeProperty
+                && Objects.equals(identity, ((SwarmAffinityNodeProperty) obj).identity);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(identity);
+    }
+
+    @Override
+    public NodePropertyDescriptor getDescriptor() {
+        return new NodePropertyDescriptor(SwarmAffinityNodeProperty.class) {};
+    }
+}
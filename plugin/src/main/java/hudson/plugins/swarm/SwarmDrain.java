@@ -0,0 +1,122 @@
+package hudson.plugins.swarm;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.TaskListener;
+import hudson.slaves.OfflineCause;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.security.NotReallyRoleSensitiveCallable;
+import jenkins.util.SystemProperties;
+
+/**
+ * Drains Swarm agents: agents being drained accept no new builds and are removed once their
+ * running builds have finished. All agents that have finished draining are removed together with a
+ * single update of the node list rather than one by one.
+ */
+@Extension
+public class SwarmDrain extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(SwarmDrain.class.getName());
+
+    private static final long RECURRENCE_PERIOD = SystemProperties.getLong(
+            SwarmDrain.class.getName() + ".recurrencePeriod", TimeUnit.SECONDS.toMillis(10));
+
+    /** Names of the agents being drained, including those without a computer. */
+    private final Set<String> draining = ConcurrentHashMap.newKeySet();
+
+    public SwarmDrain() {
+        super("Swarm drain");
+    }
+
+    public static SwarmDrain get() {
+        return ExtensionList.lookupSingleton(SwarmDrain.class);
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException {
+        removeDrained();
+    }
+
+    /** Stops scheduling new builds on the given agents and removes them once they are idle. */
+    void drain(Collection<? extends Node> nodes) {
+        for (Node node : nodes) {
+            draining.add(node.getNodeName());
+            Computer computer = node.toComputer();
+            if (computer != null && !(computer.getOfflineCause() instanceof DrainCause)) {
+                computer.setTemporaryOfflineCause(new DrainCause());
+            }
+            LOGGER.log(Level.INFO, "Draining Swarm agent {0}", node.getNodeName());
+        }
+        // Idle agents can be removed right away.
+        doRun();
+    }
+
+    boolean isDraining(Node node) {
+        if (draining.contains(node.getNodeName())) {
+            return true;
+        }
+        Computer computer = node.toComputer();
+        return computer != null && computer.getOfflineCause() instanceof DrainCause;
+    }
+
+    /** Removes all idle agents being drained in one update of the node list. */
+    void removeDrained() throws IOException {
+        Jenkins jenkins = Jenkins.get();
+        Queue.withLock(new NotReallyRoleSensitiveCallable<Void, IOException>() {
+            @Override
+            public Void call() throws IOException {
+                List<Node> remaining = new ArrayList<>();
+                List<String> drained = new ArrayList<>();
+                Set<String> existing = new HashSet<>();
+                for (Node node : jenkins.getNodes()) {
+                    existing.add(node.getNodeName());
+                    if (node instanceof SwarmSlave && isDraining(node) && isIdle(node)) {
+                        drained.add(node.getNodeName());
+                    } else {
+                        remaining.add(node);
+                    }
+                }
+                draining.retainAll(existing);
+                if (!drained.isEmpty()) {
+                    jenkins.setNodes(remaining);
+                    drained.forEach(draining::remove);
+                    LOGGER.log(Level.INFO, "Removed drained Swarm agents {0}", drained);
+                }
+                return null;
+            }
+        });
+    }
+
+    private static boolean isIdle(Node node) {
+        Computer computer = node.toComputer();
+        return computer == null || computer.isIdle();
+    }
+
+    /** Marks an agent that is being drained. */
+    public static final class DrainCause extends OfflineCause {
+
+        @Override
+        public String toString() {
+            return "Draining: the agent will be removed once its running builds have finished";
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package hudson.plugins.swarm;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Node;
+import hudson.model.PeriodicWork;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.kohsuke.stapler.StaplerResponse2;
+
+/**
+ * The health of this controller as reported to Swarm clients. Clients probe it before registering,
+ * possibly by the thousands, so it is computed periodically rather than per request, and each
+ * request only writes out the last snapshot.
+ */
+@Extension
+public class SwarmHealth extends PeriodicWork {
+
+    private static final long RECURRENCE_PERIOD = SystemProperties.getLong(
+            SwarmHealth.class.getName() + ".recurrencePeriod", TimeUnit.SECONDS.toMillis(5));
+
+    /** Queue length from which the controller reports itself as busy. */
+    private static final int BUSY_QUEUE_LENGTH =
+            SystemProperties.getInteger(SwarmHealth.class.getName() + ".busyQueueLength", 1000);
+
+    /** Whether the controller accepts new agents. */
+    public enum Admission {
+        /** New agents are welcome. */
+        OPEN,
+        /** New agents are accepted, but the build queue is long. */
+        BUSY,
+        /** The controller is shutting down and new agents should go elsewhere. */
+        CLOSED
+    }
+
+    private volatile byte[] snapshot;
+
+    public static SwarmHealth get() {
+        return ExtensionList.lookupSingleton(SwarmHealth.class);
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD;
+    }
+
+    @Override
+    protected void doRun() {
+        snapshot = takeSnapshot();
+    }
+
+    /** Writes the last snapshot, taking the first one if there is none yet. */
+    void write(StaplerResponse2 rsp) throws IOException {
+        byte[] body = snapshot;
+        if (body == null) {
+            body = takeSnapshot();
+            snapshot = body;
+        }
+        rsp.setContentType("text/plain; charset=iso-8859-1");
+        rsp.setContentLength(body.length);
+        try (OutputStream outputStream = rsp.getOutputStream()) {
+            outputStream.write(body);
+        }
+    }
+
+    private static byte[] takeSnapshot() {
+        Jenkins jenkins = Jenkins.get();
+        int swarmNodes = 0;
+        for (Node node : jenkins.getNodes()) {
+            if (node instanceof SwarmSlave) {
+                swarmNodes++;
+            }
+        }
+        int queueLength = jenkins.getQueue().getBuildableItems().size();
+
+        Admission admission;
+        if (jenkins.isQuietingDown() || jenkins.isTerminating()) {
+            admission = Admission.CLOSED;
+        } else if (queueLength >= BUSY_QUEUE_LENGTH) {
+            admission = Admission.BUSY;
+        } else {
+            admission = Admission.OPEN;
+        }
+
+        Properties props = new Properties();
+        props.put("queueLength", Integer.toString(queueLength));
+        props.put("swarmNodes", Integer.toString(swarmNodes));
+        props.put("admission", admission.name().toLowerCase(Locale.ENGLISH));
+        props.put("features", String.join(" ", PluginImpl.FEATURES));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            props.store(out, "");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
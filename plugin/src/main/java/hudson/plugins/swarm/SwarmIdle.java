@@ -0,0 +1,171 @@
+package hudson.plugins.swarm;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.TaskListener;
+import hudson.model.labels.LabelAtom;
+import hudson.slaves.OfflineCause;
+import hudson.slaves.SlaveComputer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+
+/**
+ * Keeps track of the Swarm agents disconnected by {@link SwarmIdleRetentionStrategy}, so that their
+ * clients can ask through {@code wake} whether builds are waiting for them again. Only the labels
+ * and the mode of each agent are kept; the agent itself is removed as usual when it disconnects.
+ * Each build waiting in the queue wakes a single agent. Clients that do not register again are
+ * forgotten after a while.
+ */
+@Extension
+public class SwarmIdle extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(SwarmIdle.class.getName());
+
+    private static final long RECURRENCE_PERIOD = SystemProperties.getLong(
+            SwarmIdle.class.getName() + ".recurrencePeriod", TimeUnit.MINUTES.toMillis(10));
+
+    /** How long the agents disconnected for being idle are remembered. */
+    private static final long MAX_SLEEP_MILLIS =
+            SystemProperties.getLong(SwarmIdle.class.getName() + ".maxSleepMillis", TimeUnit.HOURS.toMillis(24));
+
+    /** How long an agent that has been woken up may take to register before another one is woken instead. */
+    private static final long WAKE_TIMEOUT_MILLIS =
+            SystemProperties.getLong(SwarmIdle.class.getName() + ".wakeTimeoutMillis", TimeUnit.MINUTES.toMillis(5));
+
+    /** The agents disconnected for being idle, by name. */
+    private final Map<String, Sleeper> sleepers = new ConcurrentHashMap<>();
+
+    public SwarmIdle() {
+        super("Swarm idle agents");
+    }
+
+    public static SwarmIdle get() {
+        return ExtensionList.lookupSingleton(SwarmIdle.class);
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        long now = System.currentTimeMillis();
+        sleepers.values().removeIf(sleeper -> now - sleeper.since >= MAX_SLEEP_MILLIS);
+    }
+
+    /** Disconnects an idle agent, remembering what it can build. */
+    void retire(SlaveComputer computer, int idleTimeout) {
+        Node node = computer.getNode();
+        if (node == null) {
+            return;
+        }
+        String name = node.getNodeName();
+        Set<LabelAtom> labels = Label.parse(node.getLabelString());
+        labels.add(new LabelAtom(name));
+        sleepers.put(name, new Sleeper(labels, node.getMode(), System.currentTimeMillis()));
+        LOGGER.log(
+                Level.INFO, "Disconnecting Swarm agent {0}, idle for {1} minutes", new Object[] {name, idleTimeout});
+        computer.disconnect(new IdleCause(idleTimeout));
+    }
+
+    /** Whether the agent with the given name has been disconnected for being idle. */
+    boolean isSleeping(String name) {
+        return sleepers.containsKey(name);
+    }
+
+    /** Forgets an agent that registers again. */
+    void forget(String name) {
+        sleepers.remove(name);
+    }
+
+    /**
+     * Whether builds are waiting for the agent with the given name, which has been disconnected for
+     * being idle. Each build waiting in the queue only wakes one agent: builds that agents woken up
+     * before, but not registered yet, could run are left to them.
+     */
+    synchronized boolean isWanted(String name) {
+        Sleeper sleeper = sleepers.get(name);
+        if (sleeper == null) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (sleeper.isWoken(now)) {
+            return true;
+        }
+        List<Queue.BuildableItem> items = new ArrayList<>(Queue.getInstance().getBuildableItems());
+        for (Sleeper other : sleepers.values()) {
+            if (other.isWoken(now)) {
+                items.stream().filter(other::canTake).findFirst().ifPresent(items::remove);
+            }
+        }
+        for (Queue.BuildableItem item : items) {
+            if (sleeper.canTake(item)) {
+                sleeper.wokenAt = now;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Whether any build waiting in the queue could run on the given agent. */
+    static boolean hasDemand(Node node) {
+        for (Queue.BuildableItem item : Queue.getInstance().getBuildableItems()) {
+            if (node.canTake(item) == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Sleeper {
+
+        final Set<LabelAtom> labels;
+        final Node.Mode mode;
+        final long since;
+
+        /** When the agent was woken up, or 0. Guarded by the {@link SwarmIdle}. */
+        long wokenAt;
+
+        Sleeper(Set<LabelAtom> labels, Node.Mode mode, long since) {
+            this.labels = labels;
+            this.mode = mode;
+            this.since = since;
+        }
+
+        boolean isWoken(long now) {
+            return wokenAt != 0 && now - wokenAt < WAKE_TIMEOUT_MILLIS;
+        }
+
+        boolean canTake(Queue.BuildableItem item) {
+            Label label = item.getAssignedLabel();
+            return label == null ? mode == Node.Mode.NORMAL : label.matches(labels);
+        }
+    }
+
+    /** Marks an agent that has been disconnected for being idle. */
+    public static final class IdleCause extends OfflineCause {
+
+        private final int idleTimeout;
+
+        IdleCause(int idleTimeout) {
+            this.idleTimeout = idleTimeout;
+        }
+
+        @Override
+        public String toString() {
+            return "Idle for " + idleTimeout + " minutes: the agent registers again when builds are waiting for it";
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package hudson.plugins.swarm;
+
+import hudson.model.Descriptor;
+import hudson.model.Node;
+import hudson.slaves.RetentionStrategy;
+import hudson.slaves.SlaveComputer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RetentionStrategy} that disconnects a Swarm agent once it has been idle for a while, unless
+ * builds waiting in the queue could run on it. The client then exits, or waits until builds need
+ * it again and registers again; see {@link SwarmIdle}.
+ */
+public class SwarmIdleRetentionStrategy extends RetentionStrategy<SlaveComputer> {
+
+    /** Minutes an agent may stay idle before it is disconnected. */
+    private final int idleTimeout;
+
+    public SwarmIdleRetentionStrategy(int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    @Override
+    public long check(SlaveComputer c) {
+        Node node = c.getNode();
+        if (node != null && c.isOnline() && c.isIdle()) {
+            long idleMillis = System.currentTimeMillis() - c.getIdleStartMilliseconds();
+            if (idleMillis >= TimeUnit.MINUTES.toMillis(idleTimeout) && !SwarmIdle.hasDemand(node)) {
+                SwarmIdle.get().retire(c, idleTimeout);
+            }
+        }
+        return 1;
+    }
+
+    @Override
+    public void start(SlaveComputer c) {
+        c.connect(false);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof SwarmIdleRetentionStrategy other && idleTimeout == other.idleTimeout;
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(idleTimeout);
+    }
+
+    @Override
+    public Descriptor<RetentionStrategy<?>> getDescriptor() {
+        return new Descriptor<RetentionStrategy<?>>(SwarmIdleRetentionStrategy.class) {};
+    }
+}
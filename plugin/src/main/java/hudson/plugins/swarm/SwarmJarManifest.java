@@ -0,0 +1,156 @@
+package hudson.plugins.swarm;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.remoting.Channel;
+import hudson.slaves.ComputerListener;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+
+/**
+ * Learns which JAR files Remoting sends to Swarm agents, so that new agents can download them ahead
+ * of their first build through {@code jarManifest} and {@code jar}. Each JAR file is identified by
+ * the same checksum Remoting uses for the JAR cache of the agent, and listed by the number of
+ * agents that needed it, most needed first. Nothing survives a restart of the controller; the
+ * manifest fills again as agents run their first builds.
+ */
+@Extension
+public class SwarmJarManifest extends ComputerListener {
+
+    private static final Logger LOGGER = Logger.getLogger(SwarmJarManifest.class.getName());
+
+    /** Upper bound for the number of JAR files listed in the manifest. */
+    private static final int MAX_JARS =
+            SystemProperties.getInteger(SwarmJarManifest.class.getName() + ".maxJars", 500);
+
+    /** JAR files sent to Swarm agents, by file. */
+    private final Map<File, Jar> jars = new ConcurrentHashMap<>();
+
+    public static SwarmJarManifest get() {
+        return ExtensionList.lookupSingleton(SwarmJarManifest.class);
+    }
+
+    @Override
+    public void preOnline(Computer c, Channel channel, FilePath root, TaskListener listener) {
+        if (c.getNode() instanceof SwarmSlave) {
+            channel.addListener(new Channel.Listener() {
+                @Override
+                public void onJar(Channel channel, File jar) {
+                    record(jar);
+                }
+            });
+        }
+    }
+
+    void record(File file) {
+        jars.computeIfAbsent(file, Jar::new).agents.incrementAndGet();
+    }
+
+    /**
+     * Writes the manifest: one line per JAR file with its checksum, its size in bytes, and its
+     * name. Checksums are computed on first use and again whenever the file changes.
+     */
+    void write(Writer writer) throws IOException {
+        List<Jar> sorted = new ArrayList<>(jars.values());
+        sorted.sort(Comparator.comparingInt((Jar jar) -> jar.agents.get()).reversed());
+        int count = 0;
+        for (Jar jar : sorted) {
+            if (count == MAX_JARS) {
+                break;
+            }
+            String checksum = jar.getChecksum();
+            if (checksum != null) {
+                writer.write(checksum + " " + jar.file.length() + " " + jar.file.getName() + "\n");
+                count++;
+            }
+        }
+    }
+
+    /** Returns the listed JAR file with the given checksum, or {@code null}. */
+    File getJar(String checksum) {
+        for (Jar jar : jars.values()) {
+            if (checksum.equalsIgnoreCase(jar.getChecksum())) {
+                return jar.file;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Computes the checksum of a file as Remoting does for its JAR cache: the SHA-256 digest folded
+     * into two longs, the even ones and the odd ones combined by XOR, in hexadecimal.
+     */
+    static String checksum(File file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                md.update(buffer, 0, read);
+            }
+        }
+        ByteBuffer digest = ByteBuffer.wrap(md.digest());
+        long[] sums = new long[2];
+        for (int i = 0; digest.hasRemaining(); i++) {
+            sums[i % 2] ^= digest.getLong();
+        }
+        return String.format("%016X%016X", sums[0], sums[1]);
+    }
+
+    private static class Jar {
+
+        final File file;
+
+        /** The number of agents the file has been sent to. */
+        final AtomicInteger agents = new AtomicInteger();
+
+        private long lastModified = -1;
+
+        private String checksum;
+
+        Jar(File file) {
+            this.file = file;
+        }
+
+        /** Returns the checksum of the file, or {@code null} if it no longer exists. */
+        synchronized String getChecksum() {
+            long modified = file.lastModified();
+            if (modified == 0) {
+                return null;
+            }
+            if (modified != lastModified) {
+                try {
+                    checksum = checksum(file);
+                    lastModified = modified;
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to compute the checksum of " + file, e);
+                    return null;
+                }
+            }
+            return checksum;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package hudson.plugins.swarm;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The load of the host of a Swarm agent as last reported by its client: the CPU and memory
+ * utilization between 0 and 1, or {@link #UNKNOWN} if the client could not measure it, and the
+ * number of busy executors at the time of the report.
+ */
+final class SwarmLoad {
+
+    /** Reports older than this are ignored, since the client has most likely stopped reporting. */
+    static final long MAX_AGE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /** The utilization of a resource the client could not measure. */
+    static final double UNKNOWN = -1;
+
+    final double cpu;
+
+    final double memory;
+
+    final int busyExecutors;
+
+    final long reportedAt;
+
+    SwarmLoad(double cpu, double memory, int busyExecutors, long reportedAt) {
+        this.cpu = cpu;
+        this.memory = memory;
+        this.busyExecutors = busyExecutors;
+        this.reportedAt = reportedAt;
+    }
+
+    /**
+     * Estimates the load of a host after starting one more build on it. Builds started since the
+     * last report are not reflected in it yet, so each of them, and the new build, is assumed to
+     * use the share of the host of one executor. Without a recent report, and for what the report
+     * does not know, only the executors are counted.
+     *
+     * @param load the last report, or {@code null}
+     * @param busy the number of busy executors now
+     * @param executors the number of executors
+     * @param now the current {@link System#nanoTime()}
+     * @return the estimated load, above 1 if the host would be overloaded
+     */
+    static double score(SwarmLoad load, int busy, int executors, long now) {
+        if (executors <= 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (!isFresh(load, now)) {
+            return (double) (busy + 1) / executors;
+        }
+        double reportedBusy = (double) load.busyExecutors / executors;
+        double cpu = load.cpu >= 0 ? load.cpu : reportedBusy;
+        double memory = load.memory >= 0 ? load.memory : reportedBusy;
+        return Math.max(cpu, memory) + (double) (Math.max(0, busy - load.busyExecutors) + 1) / executors;
+    }
+
+    /** Whether there is a report that knows the CPU or memory utilization, recent enough to be trusted. */
+    static boolean isFresh(SwarmLoad load, long now) {
+        return load != null && (load.cpu >= 0 || load.memory >= 0) && now - load.reportedAt <= MAX_AGE_NANOS;
+    }
+
+    static boolean isOverloaded(double score) {
+        return score > 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("cpu=%.2f memory=%.2f busy=%d", cpu, memory, busyExecutors);
+    }
+}
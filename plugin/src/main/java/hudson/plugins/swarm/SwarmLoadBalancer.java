@@ -0,0 +1,148 @@
+package hudson.plugins.swarm;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Computer;
+import hudson.model.LoadBalancer;
+import hudson.model.Queue;
+import hudson.model.queue.MappingWorksheet;
+import hudson.model.queue.MappingWorksheet.ExecutorChunk;
+import hudson.model.queue.MappingWorksheet.Mapping;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * {@link LoadBalancer} that sends builds back to the Swarm agent their job last ran on, as
+ * remembered by {@link SwarmAffinity}, as long as it is free and not overloaded. Otherwise, builds
+ * that can only run on Swarm agents whose clients all report their load are placed on the least
+ * loaded one, as estimated by {@link SwarmLoad#score} from the reports and the busy executors.
+ * Hosts that would be overloaded are only used if there is nothing else. All other builds are left
+ * to the load balancer that was installed before, so that nothing changes until agents report load.
+ */
+public class SwarmLoadBalancer extends LoadBalancer {
+
+    private static final Logger LOGGER = Logger.getLogger(SwarmLoadBalancer.class.getName());
+
+    static final boolean DISABLED = SystemProperties.getBoolean(SwarmLoadBalancer.class.getName() + ".disabled");
+
+    private final LoadBalancer fallback;
+
+    SwarmLoadBalancer(LoadBalancer fallback) {
+        this.fallback = fallback;
+    }
+
+    @Initializer(after = InitMilestone.EXTENSIONS_AUGMENTED)
+    public static void install() {
+        if (DISABLED) {
+            return;
+        }
+        Queue queue = Jenkins.get().getQueue();
+        if (!(queue.getLoadBalancer() instanceof SwarmLoadBalancer)) {
+            queue.setLoadBalancer(new SwarmLoadBalancer(queue.getLoadBalancer()));
+        }
+    }
+
+    @Override
+    public Mapping map(@NonNull Queue.Task task, MappingWorksheet worksheet) {
+        if (worksheet.works.size() != 1) {
+            return fallback.map(task, worksheet);
+        }
+        Mapping mapping = mapSwarm(task, worksheet);
+        if (mapping == null) {
+            mapping = fallback.map(task, worksheet);
+        }
+        if (mapping != null && mapping.assigned(0) != null) {
+            SwarmAffinity.record(task, mapping.assigned(0).node);
+        }
+        return mapping;
+    }
+
+    private static Mapping mapSwarm(Queue.Task task, MappingWorksheet worksheet) {
+        List<ExecutorChunk> candidates = new ArrayList<>(worksheet.works(0).applicableExecutorChunks());
+        long now = System.nanoTime();
+
+        // The agent with the workspace of the job, unless it is busy.
+        String preferred = SwarmAffinity.getPreferred(task);
+        if (preferred != null) {
+            for (ExecutorChunk chunk : candidates) {
+                if (preferred.equals(SwarmAffinity.identity(chunk.node))
+                        && !SwarmLoad.isOverloaded(score(chunk, now))) {
+                    Mapping mapping = assign(worksheet, chunk);
+                    if (mapping != null) {
+                        LOGGER.finer(() -> "Placing " + task.getFullDisplayName() + " on "
+                                + chunk.node.getNodeName() + " with its workspace");
+                        return mapping;
+                    }
+                }
+            }
+        }
+
+        if (candidates.isEmpty() || !candidates.stream().allMatch(chunk -> hasFreshLoad(chunk, now))) {
+            return null;
+        }
+        List<ExecutorChunk> ranked = rank(candidates, chunk -> score(chunk, now), chunk -> chunk.node.getNodeName());
+        for (ExecutorChunk chunk : ranked) {
+            Mapping mapping = assign(worksheet, chunk);
+            if (mapping != null) {
+                LOGGER.finer(() -> "Placing " + task.getFullDisplayName() + " on " + chunk.node.getNodeName()
+                        + " with load " + score(chunk, now));
+                return mapping;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the candidates whose hosts would not be overloaded, the least loaded first, and by
+     * name among equally loaded ones. Also used by the simulation of the placement in the tests.
+     *
+     * @param score the estimated load of a candidate, see {@link SwarmLoad#score}
+     */
+    static <T> List<T> rank(Collection<T> candidates, ToDoubleFunction<T> score, Function<T, String> name) {
+        Map<T, Double> scores = new IdentityHashMap<>();
+        List<T> ranked = new ArrayList<>();
+        for (T candidate : candidates) {
+            double value = score.applyAsDouble(candidate);
+            if (!SwarmLoad.isOverloaded(value)) {
+                scores.put(candidate, value);
+                ranked.add(candidate);
+            }
+        }
+        ranked.sort(Comparator.comparingDouble((T candidate) -> scores.get(candidate)).thenComparing(name));
+        return ranked;
+    }
+
+    private static Mapping assign(MappingWorksheet worksheet, ExecutorChunk chunk) {
+        Mapping mapping = worksheet.new Mapping();
+        mapping.assign(0, chunk);
+        return mapping.isCompletelyValid() ? mapping : null;
+    }
+
+    private static boolean hasFreshLoad(ExecutorChunk chunk, long now) {
+        if (!(chunk.node instanceof SwarmSlave)) {
+            return false;
+        }
+        SwarmLoadNodeProperty property = chunk.node.getNodeProperty(SwarmLoadNodeProperty.class);
+        return property != null && SwarmLoad.isFresh(property.getLoad(), now);
+    }
+
+    private static double score(ExecutorChunk chunk, long now) {
+        Computer computer = chunk.computer;
+        SwarmLoadNodeProperty property = chunk.node.getNodeProperty(SwarmLoadNodeProperty.class);
+        return SwarmLoad.score(
+                property != null ? property.getLoad() : null,
+                computer.countBusy(),
+                computer.countExecutors(),
+                now);
+    }
+}
@@ -0,0 +1,42 @@
+package hudson.plugins.swarm;
+
+import hudson.model.Node;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * {@link NodeProperty} that holds the load last reported by the client of a Swarm agent through
+ * {@code reportLoad}, for {@link SwarmLoadBalancer}. The load is only kept in memory.
+ */
+public class SwarmLoadNodeProperty extends NodeProperty<Node> {
+
+    private transient volatile SwarmLoad load;
+
+    @DataBoundConstructor
+    public SwarmLoadNodeProperty() {}
+
+    SwarmLoad getLoad() {
+        return load;
+    }
+
+    void setLoad(SwarmLoad load) {
+        this.load = load;
+    }
+
+    /** All instances are equal, so that registering an agent again does not count as a change. */
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof SwarmLoadNodeProperty;
+    }
+
+    @Override
+    public int hashCode() {
+        return SwarmLoadNodeProperty.class.hashCode();
+    }
+
+    @Override
+    public NodePropertyDescriptor getDescriptor() {
+        return new NodePropertyDescriptor(SwarmLoadNodeProperty.class) {};
+    }
+}
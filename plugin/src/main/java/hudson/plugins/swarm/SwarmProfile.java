@@ -0,0 +1,239 @@
+package hudson.plugins.swarm;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.slaves.EnvironmentVariablesNodeProperty;
+import hudson.tools.ToolLocationNodeProperty;
+import hudson.util.FormValidation;
+import java.util.ArrayList;
+import java.util.List;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * A named set of agent settings defined on the controller. A client registering with a profile
+ * name receives the labels, tool locations, environment variables, executors, and idle timeout of
+ * the profile without having to send them itself.
+ *
+ * <p>The node properties of a profile are parsed once and shared by all agents using the profile.
+ */
+public class SwarmProfile extends AbstractDescribableImpl<SwarmProfile> {
+
+    private final String name;
+
+    private String labels;
+
+    private int numExecutors;
+
+    private String toolLocations;
+
+    private String environmentVariables;
+
+    private String remoteFS;
+
+    private int standbyNodes;
+
+    private int idleTimeout;
+
+    private transient volatile ToolLocationNodeProperty toolLocationNodeProperty;
+
+    private transient volatile EnvironmentVariablesNodeProperty environmentVariablesNodeProperty;
+
+    @DataBoundConstructor
+    public SwarmProfile(String name) {
+        this.name = Util.fixEmptyAndTrim(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getLabels() {
+        return labels;
+    }
+
+    @DataBoundSetter
+    public void setLabels(String labels) {
+        this.labels = Util.fixEmptyAndTrim(labels);
+    }
+
+    /** The number of executors, or 0 to use the number requested by the client. */
+    public int getNumExecutors() {
+        return numExecutors;
+    }
+
+    @DataBoundSetter
+    public void setNumExecutors(int numExecutors) {
+        this.numExecutors = Math.max(0, numExecutors);
+    }
+
+    /** Tool locations, one {@code name=location} pair per line. */
+    public String getToolLocations() {
+        return toolLocations;
+    }
+
+    @DataBoundSetter
+    public void setToolLocations(String toolLocations) {
+        this.toolLocations = Util.fixEmptyAndTrim(toolLocations);
+        this.toolLocationNodeProperty = null;
+    }
+
+    /** Environment variables, one {@code key=value} pair per line. */
+    public String getEnvironmentVariables() {
+        return environmentVariables;
+    }
+
+    @DataBoundSetter
+    public void setEnvironmentVariables(String environmentVariables) {
+        this.environmentVariables = Util.fixEmptyAndTrim(environmentVariables);
+        this.environmentVariablesNodeProperty = null;
+    }
+
+    /** The remote root directory of standby agents. */
+    public String getRemoteFS() {
+        return remoteFS;
+    }
+
+    @DataBoundSetter
+    public void setRemoteFS(String remoteFS) {
+        this.remoteFS = Util.fixEmptyAndTrim(remoteFS);
+    }
+
+    /** The number of offline placeholder agents kept ready for clients registering with this profile. */
+    public int getStandbyNodes() {
+        return standbyNodes;
+    }
+
+    @DataBoundSetter
+    public void setStandbyNodes(int standbyNodes) {
+        this.standbyNodes = Math.max(0, standbyNodes);
+    }
+
+    /**
+     * Minutes an agent may stay idle before it is disconnected, or 0 to use the idle timeout
+     * requested by the client.
+     */
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    @DataBoundSetter
+    public void setIdleTimeout(int idleTimeout) {
+        this.idleTimeout = Math.max(0, idleTimeout);
+    }
+
+    /** The tool locations of this profile in the format sent by the client. */
+    @NonNull
+    String[] getToolLocationEntries() {
+        return toEntries(toolLocations);
+    }
+
+    /** The environment variables of this profile in the format sent by the client. */
+    @NonNull
+    String[] getEnvironmentVariableEntries() {
+        return toEntries(environmentVariables);
+    }
+
+    /** The shared tool location property of this profile, if it defines any tool locations. */
+    @CheckForNull
+    ToolLocationNodeProperty getToolLocationNodeProperty() {
+        if (toolLocations == null) {
+            return null;
+        }
+        ToolLocationNodeProperty property = toolLocationNodeProperty;
+        if (property == null) {
+            property = new ToolLocationNodeProperty(PluginImpl.parseToolLocations(getToolLocationEntries()));
+            toolLocationNodeProperty = property;
+        }
+        return property;
+    }
+
+    /** The shared environment variables property of this profile, if it defines any variables. */
+    @CheckForNull
+    EnvironmentVariablesNodeProperty getEnvironmentVariablesNodeProperty() {
+        if (environmentVariables == null) {
+            return null;
+        }
+        EnvironmentVariablesNodeProperty property = environmentVariablesNodeProperty;
+        if (property == null) {
+            property = new EnvironmentVariablesNodeProperty(
+                    PluginImpl.parseEnvironmentVariables(getEnvironmentVariableEntries()));
+            environmentVariablesNodeProperty = property;
+        }
+        return property;
+    }
+
+    /**
+     * Checks that the tool locations and environment variables of this profile can be parsed.
+     *
+     * @throws Descriptor.FormException naming the first malformed field
+     */
+    void validate() throws Descriptor.FormException {
+        String error = checkEntries(toolLocations);
+        if (error != null) {
+            throw new Descriptor.FormException("Profile '" + name + "': " + error, "toolLocations");
+        }
+        error = checkEntries(environmentVariables);
+        if (error != null) {
+            throw new Descriptor.FormException("Profile '" + name + "': " + error, "environmentVariables");
+        }
+    }
+
+    /** Returns why the {@code key=value} lines are malformed, or {@code null} if they are not. */
+    @CheckForNull
+    static String checkEntries(String lines) {
+        try {
+            toEntries(lines);
+            return null;
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+
+    /** Converts {@code key=value} lines into the {@code key:value} format sent by the client. */
+    private static String[] toEntries(String lines) {
+        List<String> result = new ArrayList<>();
+        for (String line : Util.fixNull(lines).split("\\R")) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] keyValue = line.split("=", 2);
+            if (keyValue.length != 2 || keyValue[0].trim().isEmpty()) {
+                throw new IllegalArgumentException("Expected 'key=value' but got '" + line + "'");
+            }
+            result.add(keyValue[0].trim() + ":" + keyValue[1].trim());
+        }
+        return result.toArray(new String[0]);
+    }
+
+    @Extension
+    @Symbol("profile")
+    public static final class DescriptorImpl extends Descriptor<SwarmProfile> {
+
+        @Override
+        @NonNull
+        public String getDisplayName() {
+            return "Swarm profile";
+        }
+
+        public FormValidation doCheckToolLocations(@QueryParameter String value) {
+            return checkEntriesField(value);
+        }
+
+        public FormValidation doCheckEnvironmentVariables(@QueryParameter String value) {
+            return checkEntriesField(value);
+        }
+
+        private static FormValidation checkEntriesField(String value) {
+            String error = checkEntries(value);
+            return error == null ? FormValidation.ok() : FormValidation.error(error);
+        }
+    }
+}
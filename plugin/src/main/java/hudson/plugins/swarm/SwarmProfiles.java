@@ -0,0 +1,76 @@
+package hudson.plugins.swarm;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import jenkins.model.GlobalConfiguration;
+import net.sf.json.JSONObject;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.StaplerRequest2;
+
+/** Global configuration holding the {@link SwarmProfile}s clients can register with. */
+@Extension
+@Symbol("swarm")
+public class SwarmProfiles extends GlobalConfiguration {
+
+    private List<SwarmProfile> profiles = new ArrayList<>();
+
+    public SwarmProfiles() {
+        load();
+    }
+
+    public static SwarmProfiles get() {
+        return ExtensionList.lookupSingleton(SwarmProfiles.class);
+    }
+
+    public List<SwarmProfile> getProfiles() {
+        return Collections.unmodifiableList(profiles);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the tool locations or environment variables of a profile
+     *     are malformed
+     */
+    @DataBoundSetter
+    public void setProfiles(List<SwarmProfile> profiles) {
+        for (SwarmProfile profile : profiles) {
+            try {
+                profile.validate();
+            } catch (FormException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+        }
+        this.profiles = new ArrayList<>(profiles);
+        save();
+        SwarmStandbyPool.get().doRun();
+    }
+
+    /** Returns the profile with the given name, if one is defined. */
+    @CheckForNull
+    public SwarmProfile getProfile(String name) {
+        for (SwarmProfile profile : profiles) {
+            if (profile.getName() != null && profile.getName().equals(name)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean configure(StaplerRequest2 req, JSONObject json) throws FormException {
+        // An empty list of profiles is not submitted at all.
+        List<SwarmProfile> profiles = req.bindJSONToList(SwarmProfile.class, json.opt("profiles"));
+        for (SwarmProfile profile : profiles) {
+            // Rejected here rather than failing every registration with the profile.
+            profile.validate();
+        }
+        this.profiles = new ArrayList<>(profiles);
+        save();
+        SwarmStandbyPool.get().doRun();
+        return true;
+    }
+}
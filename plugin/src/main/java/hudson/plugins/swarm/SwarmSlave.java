@@ -2,6 +2,7 @@ package hudson.plugins.swarm;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
+import hudson.Util;
 import hudson.model.Descriptor;
 import hudson.model.Descriptor.FormException;
 import hudson.model.Node;
@@ -49,6 +50,15 @@ public class SwarmSlave extends Slave implements EphemeralNode {
         setNumExecutors(numExecutors);
     }
 
+    /**
+     * Stores the canonical instance of the label string from {@link LabelSetPool}, so that agents
+     * with identical labels share a single copy.
+     */
+    @Override
+    public void setLabelString(String labelString) throws IOException {
+        super.setLabelString(LabelSetPool.intern(Util.fixNull(labelString).trim()));
+    }
+
     @Override
     public Node asNode() {
         return this;
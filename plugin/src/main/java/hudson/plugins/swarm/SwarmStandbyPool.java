@@ -0,0 +1,209 @@
+package hudson.plugins.swarm;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Util;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Descriptor.FormException;
+import hudson.model.Failure;
+import hudson.model.Node;
+import hudson.model.Slave;
+import hudson.model.TaskListener;
+import hudson.slaves.NodeProperty;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.slaves.JnlpAgentReceiver;
+import jenkins.util.SystemProperties;
+
+/**
+ * Keeps a pool of offline placeholder agents for each {@link SwarmProfile} with standby nodes.
+ *
+ * <p>Creating and adding a node is the most expensive part of a registration. Placeholders are
+ * created ahead of time, so that a client registering with a profile can claim one instead of
+ * waiting for a new node to be created. The pool is refilled in the background.
+ */
+@Extension
+public class SwarmStandbyPool extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(SwarmStandbyPool.class.getName());
+
+    private static final long RECURRENCE_PERIOD = SystemProperties.getLong(
+            SwarmStandbyPool.class.getName() + ".recurrencePeriod", TimeUnit.MINUTES.toMillis(1));
+
+    /** Unclaimed placeholders by profile name. */
+    private final Map<String, Deque<Standby>> pool = new ConcurrentHashMap<>();
+
+    public SwarmStandbyPool() {
+        super("Swarm standby pool");
+    }
+
+    public static SwarmStandbyPool get() {
+        return ExtensionList.lookupSingleton(SwarmStandbyPool.class);
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        refill();
+    }
+
+    /**
+     * Claims a placeholder of the given profile, if one with the given remote root directory is
+     * available. Placeholders that have been removed or connected in the meantime are discarded.
+     */
+    @CheckForNull
+    Standby claim(SwarmProfile profile, String remoteFS) {
+        Deque<Standby> standbys = pool.get(profile.getName());
+        if (standbys == null || !Objects.equals(remoteFS, profile.getRemoteFS())) {
+            return null;
+        }
+        Standby standby;
+        while ((standby = standbys.poll()) != null) {
+            if (standby.isAvailable()) {
+                LOGGER.log(Level.FINE, "Claimed standby agent {0}", standby.getName());
+                // Replace the claimed placeholder in the background.
+                doRun();
+                return standby;
+            }
+        }
+        return null;
+    }
+
+    /** Creates missing placeholders and removes surplus ones. */
+    synchronized void refill() {
+        Jenkins jenkins = Jenkins.get();
+        Set<String> profileNames = new HashSet<>();
+        for (SwarmProfile profile : SwarmProfiles.get().getProfiles()) {
+            if (profile.getName() == null) {
+                continue;
+            }
+            profileNames.add(profile.getName());
+            Deque<Standby> standbys = pool.computeIfAbsent(profile.getName(), k -> new ConcurrentLinkedDeque<>());
+            standbys.removeIf(standby -> !standby.isAvailable());
+
+            int wanted = isStandbyCapable(profile) ? profile.getStandbyNodes() : 0;
+            while (standbys.size() > wanted) {
+                remove(standbys.pollLast());
+            }
+            while (standbys.size() < wanted) {
+                try {
+                    standbys.add(create(jenkins, profile));
+                } catch (IOException | FormException | RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Failed to create standby agent for profile " + profile.getName(), e);
+                    break;
+                }
+            }
+        }
+
+        // Drop the placeholders of profiles that no longer exist.
+        for (Iterator<Map.Entry<String, Deque<Standby>>> it = pool.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Deque<Standby>> entry = it.next();
+            if (!profileNames.contains(entry.getKey())) {
+                it.remove();
+                entry.getValue().forEach(SwarmStandbyPool::remove);
+            }
+        }
+    }
+
+    /** Placeholders need a fixed remote root directory and number of executors. */
+    private static boolean isStandbyCapable(SwarmProfile profile) {
+        return profile.getStandbyNodes() > 0 && profile.getRemoteFS() != null && profile.getNumExecutors() > 0;
+    }
+
+    private static Standby create(Jenkins jenkins, SwarmProfile profile) throws IOException, FormException {
+        String name = profile.getName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        try {
+            Jenkins.checkGoodName(name);
+        } catch (Failure e) {
+            throw new IllegalArgumentException("Invalid agent name " + name, e);
+        }
+
+        List<NodeProperty<?>> nodeProperties = new ArrayList<>();
+        if (profile.getToolLocationNodeProperty() != null) {
+            nodeProperties.add(profile.getToolLocationNodeProperty());
+        }
+        if (profile.getEnvironmentVariablesNodeProperty() != null) {
+            nodeProperties.add(profile.getEnvironmentVariablesNodeProperty());
+        }
+
+        Slave agent = ExtensionList.lookupFirst(SwarmSlaveFactory.class)
+                .createSlave(
+                        name,
+                        "Swarm agent (standby)",
+                        profile.getRemoteFS(),
+                        profile.getNumExecutors(),
+                        Node.Mode.NORMAL,
+                        LabelSetPool.intern(("swarm " + Util.fixNull(profile.getLabels())).trim()),
+                        nodeProperties);
+        jenkins.addNode(agent);
+        LOGGER.log(Level.FINE, "Created standby agent {0}", name);
+        return new Standby(name, JnlpAgentReceiver.SLAVE_SECRET.mac(name));
+    }
+
+    private static void remove(Standby standby) {
+        Node node = Jenkins.get().getNode(standby.getName());
+        if (node != null && standby.isAvailable()) {
+            try {
+                Jenkins.get().removeNode(node);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to remove standby agent " + standby.getName(), e);
+            }
+        }
+    }
+
+    /** An offline placeholder agent along with its precomputed secret. */
+    static final class Standby {
+
+        private final String name;
+
+        private final String secret;
+
+        Standby(String name, String secret) {
+            this.name = name;
+            this.secret = secret;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        String getSecret() {
+            return secret;
+        }
+
+        @CheckForNull
+        Slave getNode() {
+            return Jenkins.get().getNode(name) instanceof Slave slave ? slave : null;
+        }
+
+        /** Whether the placeholder still exists and nothing has connected to it yet. */
+        boolean isAvailable() {
+            Slave node = getNode();
+            if (node == null) {
+                return false;
+            }
+            Computer computer = node.toComputer();
+            return computer == null || (computer.isOffline() && !computer.isConnecting());
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package hudson.plugins.swarm;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import hudson.util.PluginServletFilter;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Records the controller's side of Swarm agent registrations as spans. Clients started with {@code
+ * -traceFile} send a W3C {@code traceparent} header, and every request of the plugin carrying one
+ * is recorded as a child of the client's span, together with adding the node and the Remoting
+ * handshake until the agent comes online. Spans are appended to the file given by the {@code
+ * hudson.plugins.swarm.SwarmTracing.file} system property in the OTLP JSON format, one export
+ * request per line. Without that property, nothing is recorded.
+ */
+@Extension
+public class SwarmTracing extends ComputerListener {
+
+    private static final Logger LOGGER = Logger.getLogger(SwarmTracing.class.getName());
+
+    private static final String FILE = SystemProperties.getString(SwarmTracing.class.getName() + ".file");
+
+    private static final Pattern TRACEPARENT = Pattern.compile("00-([0-9a-f]{32})-([0-9a-f]{16})-[0-9a-f]{2}");
+
+    private static final String REQUEST_ATTRIBUTE = SwarmTracing.class.getName() + ".span";
+
+    /** Agents that never come online stop being waited for after this time. */
+    private static final long HANDSHAKE_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private static final int KIND_INTERNAL = 1;
+    private static final int KIND_SERVER = 2;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /** Handshakes in progress, by agent name. */
+    private final Map<String, Span> handshakes = new ConcurrentHashMap<>();
+
+    public static SwarmTracing get() {
+        return ExtensionList.lookupSingleton(SwarmTracing.class);
+    }
+
+    static boolean isEnabled() {
+        return FILE != null;
+    }
+
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    public static void addFilter() throws ServletException {
+        if (isEnabled()) {
+            PluginServletFilter.addFilter(new TracingFilter());
+        }
+    }
+
+    /** Starts a span within the request being traced, or a span that is not recorded. */
+    static Span startSpan(ServletRequest req, String name) {
+        Object parent = req.getAttribute(REQUEST_ATTRIBUTE);
+        return parent instanceof Span ? ((Span) parent).startChild(name, KIND_INTERNAL) : Span.NONE;
+    }
+
+    /** Traces the Remoting handshake of an agent registered by the request being traced. */
+    void awaitOnline(ServletRequest req, String name) {
+        Object parent = req.getAttribute(REQUEST_ATTRIBUTE);
+        if (!(parent instanceof Span)) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (Iterator<Span> it = handshakes.values().iterator(); it.hasNext(); ) {
+            if (now - it.next().startNanos > HANDSHAKE_TIMEOUT_NANOS) {
+                it.remove();
+            }
+        }
+        handshakes.put(name, ((Span) parent).startChild("swarm.handshake", KIND_INTERNAL));
+    }
+
+    @Override
+    public void onOnline(Computer c, TaskListener listener) {
+        Span span = handshakes.remove(c.getName());
+        if (span != null) {
+            span.end();
+        }
+    }
+
+    private static void export(Span span) {
+        JSONObject resource = new JSONObject()
+                .element("attributes", new JSONArray().element(attribute("service.name", "jenkins")));
+        JSONObject scopeSpans = new JSONObject()
+                .element("scope", new JSONObject().element("name", "hudson.plugins.swarm"))
+                .element("spans", new JSONArray().element(span.toJson()));
+        JSONObject request = new JSONObject()
+                .element(
+                        "resourceSpans",
+                        new JSONArray()
+                                .element(new JSONObject()
+                                        .element("resource", resource)
+                                        .element("scopeSpans", new JSONArray().element(scopeSpans))));
+        String line = request.toString() + System.lineSeparator();
+        // Keep writing off the request thread.
+        Timer.get().execute(() -> write(line));
+    }
+
+    private static synchronized void write(String line) {
+        Path file = Paths.get(FILE);
+        try {
+            Files.writeString(file, line, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to write spans to " + file, e);
+        }
+    }
+
+    private static JSONObject attribute(String key, String value) {
+        return new JSONObject().element("key", key).element("value", new JSONObject().element("stringValue", value));
+    }
+
+    private static String randomHex(int bytes) {
+        byte[] data = new byte[bytes];
+        RANDOM.nextBytes(data);
+        StringBuilder sb = new StringBuilder(bytes * 2);
+        for (byte b : data) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static long epochNanos() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    static final class Span {
+
+        /** A span that is not recorded, used when the request is not traced. */
+        static final Span NONE = new Span(null, null, null, null, 0);
+
+        private final String name;
+        private final String traceId;
+        private final String spanId;
+        private final String parentSpanId;
+        private final int kind;
+        private final long start;
+        private final long startNanos;
+        private final JSONArray attributes = new JSONArray();
+        private long end;
+        private String error;
+
+        private Span(String name, String traceId, String spanId, String parentSpanId, int kind) {
+            this.name = name;
+            this.traceId = traceId;
+            this.spanId = spanId;
+            this.parentSpanId = parentSpanId;
+            this.kind = kind;
+            this.start = epochNanos();
+            this.startNanos = System.nanoTime();
+        }
+
+        private Span startChild(String name, int kind) {
+            return this == NONE ? NONE : new Span(name, traceId, randomHex(8), spanId, kind);
+        }
+
+        synchronized Span setAttribute(String key, Object value) {
+            if (this != NONE) {
+                attributes.add(attribute(key, String.valueOf(value)));
+            }
+            return this;
+        }
+
+        void end() {
+            end(null);
+        }
+
+        /** Ends the span, marking it as failed if an error is given. Only the first call counts. */
+        void end(Throwable e) {
+            if (this == NONE) {
+                return;
+            }
+            synchronized (this) {
+                if (end != 0) {
+                    return;
+                }
+                end = epochNanos();
+                if (e != null) {
+                    error = String.valueOf(e.getMessage());
+                }
+            }
+            export(this);
+        }
+
+        private synchronized JSONObject toJson() {
+            JSONObject json = new JSONObject()
+                    .element("traceId", traceId)
+                    .element("spanId", spanId)
+                    .element("parentSpanId", parentSpanId)
+                    .element("name", name)
+                    .element("kind", kind)
+                    .element("startTimeUnixNano", Long.toString(start))
+                    .element("endTimeUnixNano", Long.toString(end))
+                    .element("attributes", attributes);
+            if (error != null) {
+                json.element("status", new JSONObject().element("code", 2).element("message", error));
+            }
+            return json;
+        }
+    }
+
+    /** Records a server span for each request of the plugin that carries a trace context. */
+    private static class TracingFilter implements Filter {
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+                throws IOException, ServletException {
+            if (!(request instanceof HttpServletRequest)) {
+                chain.doFilter(request, response);
+                return;
+            }
+            HttpServletRequest req = (HttpServletRequest) request;
+            String path = req.getPathInfo();
+            String traceparent = req.getHeader("traceparent");
+            Matcher matcher = traceparent != null ? TRACEPARENT.matcher(traceparent) : null;
+            if (path == null || !path.startsWith("/plugin/swarm/") || matcher == null || !matcher.matches()) {
+                chain.doFilter(request, response);
+                return;
+            }
+
+            Span span = new Span(
+                    "swarm." + path.substring("/plugin/swarm/".length()),
+                    matcher.group(1),
+                    randomHex(8),
+                    matcher.group(2),
+                    KIND_SERVER);
+            req.setAttribute(REQUEST_ATTRIBUTE, span);
+            try {
+                chain.doFilter(request, response);
+                if (response instanceof HttpServletResponse) {
+                    span.setAttribute("http.response.status_code", ((HttpServletResponse) response).getStatus());
+                }
+                span.end();
+            } catch (IOException | ServletException | RuntimeException e) {
+                span.end(e);
+                throw e;
+            }
+        }
+    }
+}
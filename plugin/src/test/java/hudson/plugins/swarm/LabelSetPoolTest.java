@@ -0,0 +1,107 @@
+package hudson.plugins.swarm;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import hudson.model.Node;
+import hudson.slaves.RetentionStrategy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class LabelSetPoolTest {
+
+    private static final int AGENTS = 3000;
+
+    private static final int LABELS_PER_AGENT = 200;
+
+    private static final int VARIANTS = 10;
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void identicalLabelStringsShareOneInstance() {
+        String labels = "swarm linux x64";
+        String copy = new String(labels.toCharArray());
+        assertSame(LabelSetPool.intern(labels), LabelSetPool.intern(copy));
+    }
+
+    @Test
+    public void addAndRemoveReturnPooledInstances() {
+        String current = LabelSetPool.intern("swarm linux");
+        assertSame(current, PluginImpl.addLabels(current, "linux"));
+        assertSame(current, PluginImpl.removeLabels(current, "windows"));
+
+        String added = PluginImpl.addLabels(current, "  x64 docker ");
+        assertEquals("swarm linux x64 docker", added);
+        assertSame(added, PluginImpl.addLabels(new String(current.toCharArray()), "x64 docker"));
+        assertSame(current, PluginImpl.removeLabels(added, "x64\tdocker"));
+    }
+
+    @Test
+    public void setKeepsSwarmLabel() {
+        String labels = PluginImpl.setLabels(" linux  x64 swarm ");
+        assertEquals("swarm linux x64", labels);
+        assertSame(LabelSetPool.intern("swarm linux x64"), labels);
+        assertEquals("swarm", PluginImpl.setLabels(null));
+    }
+
+    /**
+     * Simulates a fleet of agents carrying a handful of near-identical, long label sets and checks
+     * that the label strings retained by the agents are stored once per distinct label set.
+     */
+    @Test
+    public void fleetHeapFootprint() throws Exception {
+        List<String> common = new ArrayList<>();
+        for (int i = 0; i < LABELS_PER_AGENT - 1; i++) {
+            common.add("label-" + i);
+        }
+
+        List<SwarmSlave> agents = new ArrayList<>(AGENTS);
+        long naiveChars = 0;
+        for (int i = 0; i < AGENTS; i++) {
+            // Every agent parses its own request, so every label string starts out as a new instance.
+            List<String> labels = new ArrayList<>(common);
+            labels.add("variant-" + (i % VARIANTS));
+            String labelString = "swarm " + String.join(" ", labels);
+            naiveChars += labelString.length();
+            agents.add(new SwarmSlave(
+                    "agent-" + i,
+                    "Swarm agent",
+                    "/home/jenkins",
+                    1,
+                    Node.Mode.NORMAL,
+                    labelString,
+                    new SwarmLauncher(),
+                    RetentionStrategy.NOOP,
+                    Collections.emptyList()));
+        }
+
+        // Label updates converge on the same instances as well.
+        for (int i = 0; i < AGENTS; i += 2) {
+            SwarmSlave agent = agents.get(i);
+            agent.setLabelString(PluginImpl.addLabels(agent.getLabelString(), "temporary"));
+            agent.setLabelString(PluginImpl.removeLabels(agent.getLabelString(), "temporary"));
+        }
+
+        Set<String> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+        long pooledChars = 0;
+        for (SwarmSlave agent : agents) {
+            String labelString = agent.getLabelString();
+            if (distinct.add(labelString)) {
+                pooledChars += labelString.length();
+            }
+        }
+
+        assertEquals(VARIANTS, distinct.size());
+        assertThat(pooledChars * 100, lessThan(naiveChars));
+    }
+}
@@ -0,0 +1,113 @@
+package hudson.plugins.swarm;
+
+import hudson.model.JDK;
+import hudson.model.Node;
+import hudson.slaves.EnvironmentVariablesNodeProperty;
+import hudson.slaves.RetentionStrategy;
+import hudson.tools.ToolLocationNodeProperty.ToolLocation;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import jenkins.model.Jenkins;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for the request handling of {@link PluginImpl} on a controller with thousands of Swarm
+ * agents.
+ */
+@JmhBenchmark
+public class PluginImplBenchmark {
+
+    private static final int LABELS_PER_AGENT = 50;
+
+    public static class ControllerState extends JmhBenchmarkState {
+
+        @Param({"5000"})
+        public int agents;
+
+        @Param({"1", "10", "100"})
+        public int entries;
+
+        String labels;
+
+        LinkedHashSet<String> labelSet;
+
+        String[] toolLocations;
+
+        String[] environmentVariables;
+
+        SwarmSlave agent;
+
+        @Override
+        public void setup() throws Exception {
+            Jenkins jenkins = getJenkins();
+
+            List<String> list = new ArrayList<>();
+            for (int i = 0; i < LABELS_PER_AGENT; i++) {
+                list.add("label-" + i);
+            }
+            labels = "swarm " + String.join(" ", list);
+            labelSet = PluginImpl.stringToSet(labels);
+
+            JDK[] jdks = new JDK[entries];
+            toolLocations = new String[entries];
+            environmentVariables = new String[entries];
+            for (int i = 0; i < entries; i++) {
+                jdks[i] = new JDK("jdk-" + i, "/opt/jdk-" + i);
+                toolLocations[i] = "jdk-" + i + ":/home/jenkins/tools/jdk-" + i;
+                environmentVariables[i] = "VARIABLE_" + i + ":value-" + i;
+            }
+            jenkins.getDescriptorByType(JDK.DescriptorImpl.class).setInstallations(jdks);
+
+            List<Node> nodes = new ArrayList<>(agents);
+            for (int i = 0; i < agents; i++) {
+                nodes.add(new SwarmSlave(
+                        "agent-" + i,
+                        "Swarm agent",
+                        "/home/jenkins/agent-" + i,
+                        1,
+                        Node.Mode.NORMAL,
+                        labels + " pool-" + (i % 10),
+                        new SwarmLauncher(),
+                        RetentionStrategy.NOOP,
+                        List.of()));
+            }
+            jenkins.setNodes(nodes);
+            agent = (SwarmSlave) jenkins.getNode("agent-0");
+        }
+    }
+
+    @Benchmark
+    public LinkedHashSet<String> stringToSet(ControllerState state) {
+        return PluginImpl.stringToSet(state.labels);
+    }
+
+    @Benchmark
+    public String setToString(ControllerState state) {
+        return PluginImpl.setToString(state.labelSet);
+    }
+
+    @Benchmark
+    public List<ToolLocation> parseToolLocations(ControllerState state) {
+        return PluginImpl.parseToolLocations(state.toolLocations);
+    }
+
+    @Benchmark
+    public List<EnvironmentVariablesNodeProperty.Entry> parseEnvironmentVariables(ControllerState state) {
+        return PluginImpl.parseEnvironmentVariables(state.environmentVariables);
+    }
+
+    /** Adds a label to an agent and removes it again, as done by the label endpoints. */
+    @Benchmark
+    public void addRemoveLabels(ControllerState state, Blackhole blackhole) throws Exception {
+        SwarmSlave agent = state.agent;
+        agent.setLabelString(PluginImpl.addLabels(agent.getLabelString(), "benchmark"));
+        blackhole.consume(agent.getAssignedLabels());
+        agent.setLabelString(PluginImpl.removeLabels(agent.getLabelString(), "benchmark"));
+        blackhole.consume(agent.getAssignedLabels());
+    }
+}
@@ -4,34 +4,47 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
 import hudson.Functions;
+import hudson.model.Computer;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
+import hudson.model.Label;
 import hudson.model.Node;
 import hudson.plugins.swarm.test.SwarmClientRule;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.SlaveComputer;
 import hudson.tasks.BatchFile;
 import hudson.tasks.CommandInterpreter;
 import hudson.tasks.Shell;
+import hudson.util.FormValidation;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringWriter;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 import org.apache.commons.lang.RandomStringUtils;
+import org.htmlunit.HttpMethod;
+import org.htmlunit.WebRequest;
 import org.junit.After;
 import org.junit.Assume;
 import org.junit.Before;
@@ -96,6 +109,289 @@ public class SwarmClientIntegrationTest {
         j.assertLogContains("SWARM_VAR_2=bar", build);
     }
 
+    @Test
+    public void profile() throws Exception {
+        SwarmProfile profile = new SwarmProfile("linux-x64-large");
+        profile.setLabels("linux x64 large");
+        profile.setNumExecutors(3);
+        profile.setEnvironmentVariables("SWARM_PROFILE_VAR=from-profile");
+        SwarmProfiles.get().setProfiles(List.of(profile));
+
+        Node node = swarmClientRule.createSwarmClient(
+                "-profile", "linux-x64-large", "-labels", "extra", "-e", "SWARM_VAR_1=foo");
+        assertEquals(Set.of("swarm", "linux", "x64", "large", "extra"), decode(node.getLabelString()));
+        assertEquals(3, node.getNumExecutors());
+
+        FreeStyleProject project = j.createFreeStyleProject();
+        project.setConcurrentBuild(false);
+        project.setAssignedNode(node);
+        project.getBuildersList().add(echoCommand("SWARM_PROFILE_VAR"));
+        project.getBuildersList().add(echoCommand("SWARM_VAR_1"));
+
+        FreeStyleBuild build = j.buildAndAssertSuccess(project);
+        j.assertLogContains("SWARM_PROFILE_VAR=from-profile", build);
+        j.assertLogContains("SWARM_VAR_1=foo", build);
+    }
+
+    @Test
+    public void malformedProfileIsRejected() {
+        SwarmProfile.DescriptorImpl descriptor = j.jenkins.getDescriptorByType(SwarmProfile.DescriptorImpl.class);
+        assertEquals(FormValidation.Kind.OK, descriptor.doCheckEnvironmentVariables("JAVA_HOME=/opt/java").kind);
+        assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckEnvironmentVariables("JAVA_HOME").kind);
+        assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckToolLocations("maven").kind);
+
+        SwarmProfile profile = new SwarmProfile("broken");
+        profile.setEnvironmentVariables("JAVA_HOME");
+        assertThrows(IllegalArgumentException.class, () -> SwarmProfiles.get().setProfiles(List.of(profile)));
+        assertNull(SwarmProfiles.get().getProfile("broken"));
+    }
+
+    @Test
+    public void unknownProfile() throws Exception {
+        startFailingSwarmClient(j.getURL(), "unknown_profile", "-profile", "does-not-exist", "-retry", "0");
+    }
+
+    @Test
+    public void standbyPool() throws Exception {
+        String remoteFS = temporaryFolder.newFolder().getAbsolutePath();
+        SwarmProfile profile = new SwarmProfile("standby");
+        profile.setLabels("linux");
+        profile.setNumExecutors(2);
+        profile.setRemoteFS(remoteFS);
+        profile.setStandbyNodes(1);
+        SwarmProfiles.get().setProfiles(List.of(profile));
+        SwarmStandbyPool.get().refill();
+
+        List<Node> standbys = j.jenkins.getNodes();
+        assertEquals(1, standbys.size());
+        String standbyName = standbys.get(0).getNodeName();
+        assertTrue(standbyName.startsWith("standby-"));
+        assertTrue(standbys.get(0).toComputer().isOffline());
+
+        // Requests without a remote root directory do not claim a placeholder.
+        assertNull(SwarmStandbyPool.get().claim(profile, null));
+
+        Node node = swarmClientRule.createSwarmClientWithName(
+                "standby", "-profile", "standby", "-fsroot", remoteFS, "-labels", "extra");
+        assertEquals(standbyName, node.getNodeName());
+        assertEquals(Set.of("swarm", "linux", "extra"), decode(node.getLabelString()));
+        assertEquals(2, node.getNumExecutors());
+    }
+
+    @Test
+    public void drainWaitsForRunningBuild() throws Exception {
+        Node node = swarmClientRule.createSwarmClient();
+
+        FreeStyleProject project = j.createFreeStyleProject();
+        project.setAssignedNode(node);
+        project.getBuildersList()
+                .add(Functions.isWindows() ? new BatchFile("ping -n 6 127.0.0.1 > nul") : new Shell("sleep 5"));
+        FreeStyleBuild build = project.scheduleBuild2(0).waitForStart();
+
+        SwarmDrain.get().drain(List.of(node));
+        assertTrue(node.toComputer().isTemporarilyOffline());
+        assertNotNull(j.jenkins.getNode(node.getNodeName()));
+
+        j.assertBuildStatusSuccess(j.waitForCompletion(build));
+        SwarmDrain.get().removeDrained();
+        assertNull(j.jenkins.getNode(node.getNodeName()));
+    }
+
+    @Test
+    public void drainOnShutdown() throws Exception {
+        Node node = swarmClientRule.createSwarmClient("-drainOnShutdown", "-keepDisconnectedClients");
+        swarmClientRule.tearDown();
+        assertNull(j.jenkins.getNode(node.getNodeName()));
+    }
+
+    @Test
+    public void sleepWhenIdle() throws Exception {
+        Node node = swarmClientRule.createSwarmClient("-idleTimeout", "60", "-sleepWhenIdle");
+        String name = node.getNodeName();
+        assertEquals(new SwarmIdleRetentionStrategy(60), ((SwarmSlave) node).getRetentionStrategy());
+
+        // Not idle for long enough yet.
+        SlaveComputer computer = (SlaveComputer) node.toComputer();
+        computer.getRetentionStrategy().check(computer);
+        assertTrue(computer.isOnline());
+
+        SwarmIdle.get().retire(computer, 60);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (j.jenkins.getNode(name) != null && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+        }
+        assertNull(j.jenkins.getNode(name));
+        assertFalse(SwarmIdle.get().isWanted(name));
+
+        // A build waiting for the agent wakes its client, which registers again.
+        FreeStyleProject project = j.createFreeStyleProject();
+        project.setAssignedLabel(j.jenkins.getLabel("swarm"));
+        FreeStyleBuild build = j.buildAndAssertSuccess(project);
+        assertEquals(name, build.getBuiltOnStr());
+        assertFalse(SwarmIdle.get().isSleeping(name));
+    }
+
+    @Test
+    public void oneBuildWakesOneSleeper() throws Exception {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            DumbSlave agent = j.createOnlineSlave(Label.get("sleepy"));
+            names.add(agent.getNodeName());
+            SwarmIdle.get().retire((SlaveComputer) agent.toComputer(), 60);
+            j.jenkins.removeNode(agent);
+        }
+
+        FreeStyleProject project = j.createFreeStyleProject();
+        project.setAssignedLabel(Label.get("sleepy"));
+        project.scheduleBuild2(0);
+        awaitBuildableItems(1);
+
+        // The agent woken up first keeps the build until it registers.
+        assertTrue(SwarmIdle.get().isWanted(names.get(0)));
+        assertFalse(SwarmIdle.get().isWanted(names.get(1)));
+        assertTrue(SwarmIdle.get().isWanted(names.get(0)));
+
+        // Another build wakes the other agent.
+        FreeStyleProject other = j.createFreeStyleProject();
+        other.setAssignedLabel(Label.get("sleepy"));
+        other.scheduleBuild2(0);
+        awaitBuildableItems(2);
+        assertTrue(SwarmIdle.get().isWanted(names.get(1)));
+
+        j.jenkins.getQueue().clear();
+    }
+
+    private void awaitBuildableItems(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (j.jenkins.getQueue().getBuildableItems().size() < count && System.nanoTime() < deadline) {
+            j.jenkins.getQueue().maintain();
+            Thread.sleep(100);
+        }
+        assertEquals(count, j.jenkins.getQueue().getBuildableItems().size());
+    }
+
+    @Test
+    public void autoExecutors() throws Exception {
+        // No host has enough CPUs for a second executor.
+        Node node = swarmClientRule.createSwarmClient("-autoExecutors", "-executorCpus", "100000");
+        assertEquals(1, node.getNumExecutors());
+    }
+
+    @Test
+    public void setExecutors() throws Exception {
+        Node node = swarmClientRule.createSwarmClient("-executors", "1");
+        Computer computer = node.toComputer();
+        VirtualChannel channel = computer.getChannel();
+        assertEquals(1, computer.countExecutors());
+
+        // As the client does when its container has been resized.
+        JenkinsRule.WebClient wc = j.createWebClient();
+        WebRequest request = new WebRequest(
+                new URL(j.getURL(), "plugin/swarm/setExecutors?name=" + node.getNodeName() + "&executors=3"),
+                HttpMethod.POST);
+        wc.addCrumb(request);
+        wc.getPage(request);
+
+        assertEquals(3, j.jenkins.getNode(node.getNodeName()).getNumExecutors());
+        assertSame(computer, j.jenkins.getNode(node.getNodeName()).toComputer());
+        assertEquals(3, computer.countExecutors());
+
+        // Without reconnecting.
+        assertTrue(computer.isOnline());
+        assertSame(channel, computer.getChannel());
+    }
+
+    @Test
+    public void reportLoad() throws Exception {
+        assertTrue(j.jenkins.getQueue().getLoadBalancer() instanceof SwarmLoadBalancer);
+
+        // The first report is sent right after registering.
+        Node node = swarmClientRule.createSwarmClient("-reportLoad");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        SwarmLoadNodeProperty property = node.getNodeProperty(SwarmLoadNodeProperty.class);
+        while ((property == null || property.getLoad() == null) && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+            property = node.getNodeProperty(SwarmLoadNodeProperty.class);
+        }
+        assertNotNull(property);
+        assertNotNull(property.getLoad());
+
+        FreeStyleProject project = j.createFreeStyleProject();
+        project.setAssignedNode(node);
+        j.buildAndAssertSuccess(project);
+    }
+
+    @Test
+    public void workspaceAffinity() throws Exception {
+        String remoteFS = temporaryFolder.newFolder().getAbsolutePath();
+        Node node = swarmClientRule.createSwarmClientWithName("affinity-a", "-fsroot", remoteFS, "-executors", "1");
+        String identity = SwarmAffinity.identity(node);
+        assertNotNull(identity);
+
+        FreeStyleProject project = j.createFreeStyleProject();
+        project.setAssignedLabel(j.jenkins.getLabel("swarm"));
+        j.buildAndAssertSuccess(project);
+        assertEquals(identity, SwarmAffinity.getPreferred(project));
+
+        // Registering again under another name keeps the identity, and so the workspace.
+        swarmClientRule.tearDown();
+        node = swarmClientRule.createSwarmClientWithName("affinity-b", "-fsroot", remoteFS, "-executors", "1");
+        assertEquals(identity, SwarmAffinity.identity(node));
+
+        // Without affinity, the default load balancer would mostly pick the agent with more executors.
+        DumbSlave other = new DumbSlave(
+                "affinity-other", temporaryFolder.newFolder().getAbsolutePath(), j.createComputerLauncher(null));
+        other.setNumExecutors(20);
+        other.setLabelString("swarm");
+        j.jenkins.addNode(other);
+        j.waitOnline(other);
+
+        FreeStyleBuild build = j.buildAndAssertSuccess(project);
+        assertEquals(node.getNodeName(), build.getBuiltOnStr());
+        assertEquals(identity, SwarmAffinity.getPreferred(project));
+    }
+
+    @Test
+    public void prefetchJars() throws Exception {
+        // The first build teaches the controller which JAR files agents need.
+        Node node = swarmClientRule.createSwarmClient();
+        FreeStyleProject project = j.createFreeStyleProject();
+        project.setAssignedNode(node);
+        j.buildAndAssertSuccess(project);
+        StringWriter manifest = new StringWriter();
+        SwarmJarManifest.get().write(manifest);
+        assertFalse(manifest.toString().isEmpty());
+        String checksum = manifest.toString().split(" ")[0];
+
+        // The next agent has them before its first build.
+        swarmClientRule.tearDown();
+        File jarCache = temporaryRemotingFolder.newFolder("prefetchedjarcache");
+        swarmClientRule.createSwarmClient("-prefetchJars", "-jar-cache", jarCache.getPath());
+        File jar = new File(jarCache, checksum.substring(0, 2) + "/" + checksum.substring(2) + ".jar");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!jar.isFile() && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+        }
+        assertTrue(jar.isFile());
+        assertEquals(checksum, SwarmJarManifest.checksum(jar));
+    }
+
+    @Test
+    public void health() throws Exception {
+        swarmClientRule.createSwarmClient();
+        SwarmHealth.get().doRun();
+
+        // The health is readable without authenticating.
+        Properties props = new Properties();
+        try (InputStream is = new URL(j.getURL(), "swarm/health").openStream()) {
+            props.load(is);
+        }
+        assertEquals("0", props.getProperty("queueLength"));
+        assertEquals("1", props.getProperty("swarmNodes"));
+        assertEquals("open", props.getProperty("admission"));
+        assertTrue(props.getProperty("features").contains("health"));
+    }
+
     private static CommandInterpreter echoCommand(String key) {
         return Functions.isWindows()
                 ? new BatchFile("echo " + key + "=%" + key + "%")
@@ -0,0 +1,165 @@
+package hudson.plugins.swarm;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Simulates a fleet of Swarm agents where some hosts are shared with other workloads, and compares
+ * placing builds on a random free executor, which is what the default load balancer amounts to for
+ * distinct jobs, with placing them on the least loaded agent as {@link SwarmLoadBalancer} does.
+ * Builds on overloaded hosts run slower, which keeps executors busy longer and builds queued.
+ *
+ * <p>The fleet is sized so that it cannot always keep every host below the overload threshold: when
+ * all free executors are on hosts that would be overloaded, builds still go to one of them rather
+ * than wait. Least loaded placement therefore reduces overload, but does not eliminate it.
+ */
+public class SwarmLoadBalancerSimulationTest {
+
+    private static final int HOSTS = 20;
+
+    private static final int EXECUTORS = 4;
+
+    /** Hosts with a noisy neighbor. */
+    private static final int BUSY_HOSTS = 6;
+
+    /** The share of the host used by a build running on every executor. */
+    private static final double BUILD_LOAD = 0.5;
+
+    private static final int BUILD_SECONDS = 40;
+
+    private static final int REPORT_INTERVAL_SECONDS = 15;
+
+    private static final double ARRIVALS_PER_SECOND = 1.6;
+
+    private static final int SECONDS = 20000;
+
+    @Test
+    public void leastLoadedPlacementShortensQueueAndAvoidsOverload() {
+        Result random = simulate(false);
+        Result swarm = simulate(true);
+        assertThat(swarm.queueSecondsP95, lessThan(random.queueSecondsP95));
+        assertThat(swarm.queueSecondsMean, lessThan(random.queueSecondsMean));
+        assertThat(swarm.overloadedHostSeconds, lessThan(random.overloadedHostSeconds));
+    }
+
+    @Test
+    public void unknownLoadIsEstimatedFromExecutors() {
+        // A client that has no CPU sample yet does not look idle.
+        SwarmLoad unknown = new SwarmLoad(SwarmLoad.UNKNOWN, SwarmLoad.UNKNOWN, 2, 0);
+        assertFalse(SwarmLoad.isFresh(unknown, 0));
+        assertEquals(0.75, SwarmLoad.score(unknown, 2, EXECUTORS, 0), 0.001);
+
+        SwarmLoad cpuUnknown = new SwarmLoad(SwarmLoad.UNKNOWN, 0.2, 2, 0);
+        assertTrue(SwarmLoad.isFresh(cpuUnknown, 0));
+        assertEquals(0.75, SwarmLoad.score(cpuUnknown, 2, EXECUTORS, 0), 0.001);
+        assertEquals(0.95, SwarmLoad.score(new SwarmLoad(0.7, 0.2, 2, 0), 2, EXECUTORS, 0), 0.001);
+    }
+
+    private static Result simulate(boolean leastLoaded) {
+        Random arrivals = new Random(1);
+        Random placement = new Random(31);
+        double[] background = new double[HOSTS];
+        for (int host = 0; host < HOSTS; host++) {
+            background[host] = host < BUSY_HOSTS ? 0.6 : 0.1;
+        }
+        int[] busy = new int[HOSTS];
+        SwarmLoad[] reports = new SwarmLoad[HOSTS];
+        List<double[]> running = new ArrayList<>();
+        Deque<Integer> queue = new ArrayDeque<>();
+        List<Integer> queueSeconds = new ArrayList<>();
+        long overloadedHostSeconds = 0;
+
+        for (int now = 0; now < SECONDS; now++) {
+            // Builds progress more slowly on hosts loaded beyond 80%.
+            for (Iterator<double[]> it = running.iterator(); it.hasNext(); ) {
+                double[] build = it.next();
+                int host = (int) build[0];
+                build[1] -= Math.min(1, 0.8 / load(background, busy, host));
+                if (build[1] <= 0) {
+                    busy[host]--;
+                    it.remove();
+                }
+            }
+            if (now % REPORT_INTERVAL_SECONDS == 0) {
+                for (int host = 0; host < HOSTS; host++) {
+                    reports[host] = new SwarmLoad(Math.min(1, load(background, busy, host)), 0, busy[host], now);
+                }
+            }
+            for (int i = 0; i < 4; i++) {
+                if (arrivals.nextDouble() < ARRIVALS_PER_SECOND / 4) {
+                    queue.add(now);
+                }
+            }
+
+            while (!queue.isEmpty()) {
+                List<Integer> free = new ArrayList<>();
+                for (int host = 0; host < HOSTS; host++) {
+                    if (busy[host] < EXECUTORS) {
+                        free.add(host);
+                    }
+                }
+                if (free.isEmpty()) {
+                    break;
+                }
+                int host = leastLoaded ? leastLoaded(free, reports, busy, now) : -1;
+                if (host < 0) {
+                    host = free.get(placement.nextInt(free.size()));
+                }
+                queueSeconds.add(now - queue.poll());
+                busy[host]++;
+                running.add(new double[] {host, BUILD_SECONDS});
+            }
+
+            for (int host = 0; host < HOSTS; host++) {
+                if (load(background, busy, host) >= 0.9) {
+                    overloadedHostSeconds++;
+                }
+            }
+        }
+
+        Collections.sort(queueSeconds);
+        return new Result(
+                queueSeconds.get((int) (queueSeconds.size() * 0.95)),
+                queueSeconds.stream().mapToInt(Integer::intValue).average().orElse(0),
+                overloadedHostSeconds);
+    }
+
+    /** Picks a host with {@link SwarmLoadBalancer#rank}, or returns -1 to leave it to the fallback. */
+    private static int leastLoaded(List<Integer> free, SwarmLoad[] reports, int[] busy, long now) {
+        // Time is counted in seconds rather than nanoseconds, so reports never become stale.
+        List<Integer> ranked = SwarmLoadBalancer.rank(
+                free,
+                host -> SwarmLoad.score(reports[host], busy[host], EXECUTORS, now),
+                host -> String.format("host-%02d", host));
+        return ranked.isEmpty() ? -1 : ranked.get(0);
+    }
+
+    private static double load(double[] background, int[] busy, int host) {
+        return background[host] + BUILD_LOAD * busy[host] / EXECUTORS;
+    }
+
+    private static class Result {
+
+        final int queueSecondsP95;
+        final double queueSecondsMean;
+        final long overloadedHostSeconds;
+
+        Result(int queueSecondsP95, double queueSecondsMean, long overloadedHostSeconds) {
+            this.queueSecondsP95 = queueSecondsP95;
+            this.queueSecondsMean = queueSecondsMean;
+            this.overloadedHostSeconds = overloadedHostSeconds;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package hudson.plugins.swarm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.SlaveComputer;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * Load test for the registration endpoints. Simulates thousands of Swarm clients registering,
+ * updating their labels, and disconnecting from a single controller, without starting client
+ * processes or Remoting connections.
+ *
+ * <p>Skipped unless run with {@code mvn -Pload-test test}. The number of agents and of concurrent
+ * clients can be changed with the {@code swarm.loadTest.agents} and {@code
+ * swarm.loadTest.concurrency} system properties. Latency percentiles, throughput, and controller
+ * heap usage are printed and written to {@code target/swarm-load-test.txt}.
+ */
+public class SwarmRegistrationLoadTest {
+
+    private static final int AGENTS = Integer.getInteger("swarm.loadTest.agents", 2000);
+
+    private static final int CONCURRENCY = Integer.getInteger("swarm.loadTest.concurrency", 16);
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private HttpClient client;
+
+    private ExecutorService executor;
+
+    private final StringBuilder report = new StringBuilder();
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("Run with -Pload-test", Boolean.getBoolean("swarm.loadTest"));
+        j.jenkins.setCrumbIssuer(null);
+        client = HttpClient.newHttpClient();
+        executor = Executors.newFixedThreadPool(CONCURRENCY);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    @Test
+    public void registrations() throws Exception {
+        report.append(String.format(
+                "Swarm registration load test: %d agents, %d concurrent clients%n", AGENTS, CONCURRENCY));
+        long heapBefore = usedHeap();
+
+        run("createSlave", i -> post(
+                "createSlave",
+                "name", "agent-" + i,
+                "executors", "1",
+                "remoteFsRoot", "/home/jenkins/agent-" + i,
+                "labels", "linux x64 pool-" + (i % 10),
+                "mode", "NORMAL"));
+        assertEquals(AGENTS, j.jenkins.getNodes().size());
+        long heapRegistered = usedHeap();
+
+        run("addSlaveLabels", i -> post("addSlaveLabels", "name", "agent-" + i, "labels", "docker large"));
+        run("getSlaveLabels", i -> get("getSlaveLabels?name=agent-" + i));
+        run("removeSlaveLabels", i -> post("removeSlaveLabels", "name", "agent-" + i, "labels", "large"));
+
+        run("afterDisconnect", i -> {
+            Node node = j.jenkins.getNode("agent-" + i);
+            assertNotNull(node);
+            SlaveComputer computer = (SlaveComputer) node.toComputer();
+            ((SwarmLauncher) computer.getLauncher()).afterDisconnect(computer, TaskListener.NULL);
+        });
+        assertEquals(0, j.jenkins.getNodes().size());
+
+        report.append(String.format(
+                "Controller heap: %d MiB before, %d MiB with %d agents (%d KiB per agent)%n",
+                heapBefore >> 20, heapRegistered >> 20, AGENTS, ((heapRegistered - heapBefore) / AGENTS) >> 10));
+
+        System.out.print(report);
+        Path output = Paths.get("target", "swarm-load-test.txt");
+        Files.createDirectories(output.getParent());
+        Files.writeString(output, report.toString(), StandardCharsets.UTF_8);
+    }
+
+    /** Runs one operation per agent on the simulated clients and reports its latency distribution. */
+    private void run(String operation, Operation body) throws Exception {
+        long[] latencies = new long[AGENTS];
+        List<Future<?>> futures = new ArrayList<>(AGENTS);
+        long start = System.nanoTime();
+        for (int i = 0; i < AGENTS; i++) {
+            int agent = i;
+            futures.add(executor.submit(() -> {
+                long begin = System.nanoTime();
+                body.run(agent);
+                latencies[agent] = System.nanoTime() - begin;
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        report.append(String.format(
+                "%-18s p50 %8.2f ms  p99 %8.2f ms  max %8.2f ms  %8.1f ops/s%n",
+                operation,
+                millis(percentile(latencies, 50)),
+                millis(percentile(latencies, 99)),
+                millis(latencies[latencies.length - 1]),
+                AGENTS / (elapsed / 1e9)));
+    }
+
+    private void post(String method, String... parameters) throws IOException, InterruptedException {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < parameters.length; i += 2) {
+            if (body.length() > 0) {
+                body.append('&');
+            }
+            body.append(parameters[i])
+                    .append('=')
+                    .append(URLEncoder.encode(parameters[i + 1], StandardCharsets.UTF_8));
+        }
+        send(HttpRequest.newBuilder(uri(method))
+                .header("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString(), StandardCharsets.UTF_8))
+                .build());
+    }
+
+    private void get(String method) throws IOException, InterruptedException {
+        send(HttpRequest.newBuilder(uri(method)).GET().build());
+    }
+
+    private void send(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        assertEquals(response.body(), 200, response.statusCode());
+    }
+
+    private URI uri(String method) throws IOException {
+        return URI.create(j.getURL() + "plugin/swarm/" + method);
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        void run(int agent) throws Exception;
+    }
+}